@@ -0,0 +1,153 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Random;
+
+/**
+ * Synthetic copy of the Jira tables read by the JQL functions in an in-memory H2 database.
+ * Every issue gets the same number of status transitions and comments by random users, spread
+ * over the last year. Indexes are the ones Jira creates for these tables.
+ */
+public final class JiraDataset {
+    public static final String[] STATUSES = {"Open", "In Progress", "Resolved", "Reopened", "Closed"};
+    public static final int PROJECTS = 10;
+    public static final int USERS = 500;
+    public static final int GROUPS = 10;
+    public static final long YEAR = 365L * 24 * 60 * 60 * 1000;
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE jiraissue (ID BIGINT PRIMARY KEY, pkey VARCHAR(255), PROJECT BIGINT, issuetype VARCHAR(60), issuestatus VARCHAR(60), ASSIGNEE VARCHAR(255))",
+        "CREATE INDEX issue_proj_status ON jiraissue (PROJECT, issuestatus)",
+        "CREATE TABLE changegroup (ID BIGINT PRIMARY KEY, issueid BIGINT, AUTHOR VARCHAR(255), CREATED TIMESTAMP)",
+        "CREATE INDEX chggroup_issue ON changegroup (issueid)",
+        "CREATE TABLE changeitem (ID BIGINT PRIMARY KEY, groupid BIGINT, FIELDTYPE VARCHAR(255), FIELD VARCHAR(255), NEWSTRING VARCHAR(255))",
+        "CREATE INDEX chgitem_chggrp ON changeitem (groupid)",
+        "CREATE INDEX chgitem_field ON changeitem (FIELD)",
+        "CREATE TABLE jiraaction (ID BIGINT PRIMARY KEY, issueid BIGINT, ACTIONTYPE VARCHAR(255), UPDATEAUTHOR VARCHAR(255), UPDATED TIMESTAMP)",
+        "CREATE INDEX action_issue ON jiraaction (issueid, ACTIONTYPE)",
+        "CREATE INDEX action_author_created ON jiraaction (UPDATEAUTHOR, UPDATED)",
+        "CREATE TABLE cwd_membership (ID BIGINT PRIMARY KEY, parent_name VARCHAR(255), child_name VARCHAR(255), membership_type VARCHAR(60))",
+        "CREATE INDEX idx_mem_dir_parent ON cwd_membership (parent_name)",
+        "CREATE INDEX idx_mem_dir_child ON cwd_membership (child_name)"
+    };
+
+    private static final int BATCH = 10000;
+
+    private JiraDataset() {
+    }
+
+    public static String userName(int i) {
+        return "user" + i;
+    }
+
+    public static String groupName(int i) {
+        return "group" + i;
+    }
+
+    /**
+     * Creates the database and fills it. Returns an open connection to it; the database lives while it is open.
+     */
+    public static Connection create(String name, int issues, int transitions, int comments, long now) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;LOCK_MODE=0;UNDO_LOG=0", "sa", "");
+        conn.setAutoCommit(false);
+        Statement stmt = conn.createStatement();
+        try {
+            for (String sql : SCHEMA)
+                stmt.execute(sql);
+        } finally {
+            stmt.close();
+        }
+
+        Random random = new Random(42);
+        fillMembership(conn);
+        fillIssues(conn, random, issues, transitions, comments, now);
+        conn.commit();
+
+        stmt = conn.createStatement();
+        try {
+            stmt.execute("ANALYZE");
+        } finally {
+            stmt.close();
+        }
+        return conn;
+    }
+
+    private static void fillMembership(Connection conn) throws SQLException {
+        PreparedStatement pStmt = conn.prepareStatement("INSERT INTO cwd_membership VALUES (?, ?, ?, 'GROUP_USER')");
+        try {
+            for (int i = 0; i < USERS; i++) {
+                pStmt.setLong(1, i + 1);
+                pStmt.setString(2, groupName(i % GROUPS));
+                pStmt.setString(3, userName(i));
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+        } finally {
+            pStmt.close();
+        }
+    }
+
+    private static void fillIssues(Connection conn, Random random, int issues, int transitions, int comments, long now) throws SQLException {
+        PreparedStatement issue = conn.prepareStatement("INSERT INTO jiraissue VALUES (?, ?, ?, '1', ?, ?)");
+        PreparedStatement group = conn.prepareStatement("INSERT INTO changegroup VALUES (?, ?, ?, ?)");
+        PreparedStatement item = conn.prepareStatement("INSERT INTO changeitem VALUES (?, ?, 'jira', 'status', ?)");
+        PreparedStatement action = conn.prepareStatement("INSERT INTO jiraaction VALUES (?, ?, 'comment', ?, ?)");
+        try {
+            long groupId = 0;
+            long actionId = 0;
+            for (int i = 1; i <= issues; i++) {
+                long project = i % PROJECTS + 1;
+                issue.setLong(1, i);
+                issue.setString(2, "P" + project + "-" + i);
+                issue.setLong(3, project);
+                issue.setString(4, STATUSES[random.nextInt(STATUSES.length)]);
+                issue.setString(5, userName(random.nextInt(USERS)));
+                issue.addBatch();
+
+                for (int t = 0; t < transitions; t++) {
+                    groupId++;
+                    group.setLong(1, groupId);
+                    group.setLong(2, i);
+                    group.setString(3, userName(random.nextInt(USERS)));
+                    group.setTimestamp(4, new Timestamp(now - (long) (random.nextDouble() * YEAR)));
+                    group.addBatch();
+                    item.setLong(1, groupId);
+                    item.setLong(2, groupId);
+                    item.setString(3, STATUSES[random.nextInt(STATUSES.length)]);
+                    item.addBatch();
+                }
+
+                for (int c = 0; c < comments; c++) {
+                    actionId++;
+                    action.setLong(1, actionId);
+                    action.setLong(2, i);
+                    action.setString(3, userName(random.nextInt(USERS)));
+                    action.setTimestamp(4, new Timestamp(now - (long) (random.nextDouble() * YEAR)));
+                    action.addBatch();
+                }
+
+                if (i % BATCH == 0) {
+                    issue.executeBatch();
+                    group.executeBatch();
+                    item.executeBatch();
+                    action.executeBatch();
+                    conn.commit();
+                }
+            }
+            issue.executeBatch();
+            group.executeBatch();
+            item.executeBatch();
+            action.executeBatch();
+        } finally {
+            issue.close();
+            group.close();
+            item.close();
+            action.close();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.config.properties.ApplicationProperties;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.query.operand.FunctionOperand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.andreymarkelov.atlas.plugins.utils.CommentedIssuesIndex;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end evaluation of the SQL based JQL functions: the query of the function is run on
+ * {@link JiraDataset} with the evaluation budget, then the result is filtered by a stubbed
+ * {@link PermissionManager} which hides every tenth issue. Limits are off and the slow operation
+ * log is disabled, so only the query and the filtering are measured.
+ * <p/>
+ * <code>myCommentedIssues</code> reads the window of the user kept by {@link CommentedIssuesIndex},
+ * which is loaded from the dataset by the first call of the trial.
+ * <p/>
+ * To compare a query strategy, add a benchmark running an {@link IssueIdQuery} with the new SQL
+ * next to the one of the function.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class JqlFunctionBenchmark {
+    private static final String STATUS = "Resolved";
+
+    @Param({"200000"})
+    public int issues;
+
+    @Param({"5"})
+    public int transitions;
+
+    @Param({"5"})
+    public int comments;
+
+    private Connection conn;
+    private JqlFunctionLimits limits;
+    private IssueManager issueManager;
+    private PermissionManager permissionManager;
+    private CommentedIssuesIndex commentedIssuesIndex;
+    private Timestamp since;
+    private List<String> userNames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        long now = System.currentTimeMillis();
+        conn = JiraDataset.create("jira" + issues + "x" + transitions + "x" + comments, issues, transitions, comments, now);
+        since = new Timestamp(now - JiraDataset.YEAR / 12);
+        userNames = new ArrayList<String>();
+        for (int i = 0; i < 10; i++)
+            userNames.add(JiraDataset.userName(i));
+
+        UtilsSettings settings = new UtilsSettings(stub(ApplicationProperties.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                //--> zero limits and threshold switch limits and the slow operation log off
+                return "getString".equals(method.getName()) ? "0" : defaultValue(method.getReturnType());
+            }
+        }));
+        SlowOperationLog slowOperationLog = new SlowOperationLog(settings);
+        PluginMetrics pluginMetrics = new PluginMetrics(slowOperationLog);
+        limits = new JqlFunctionLimits(settings, pluginMetrics, slowOperationLog);
+        commentedIssuesIndex = new CommentedIssuesIndex(stub(EventPublisher.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return defaultValue(method.getReturnType());
+            }
+        }), pluginMetrics) {
+            @Override
+            protected Connection getConnection() {
+                //--> the index closes connections after use, the dataset lives while the connection is open
+                return stub(Connection.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("close".equals(method.getName()))
+                            return null;
+                        try {
+                            return method.invoke(conn, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+            }
+        };
+
+        issueManager = stub(IssueManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getIssueObject".equals(method.getName()) && args.length == 1 && args[0] instanceof Long)
+                    return issue((Long) args[0]);
+                return defaultValue(method.getReturnType());
+            }
+        });
+        permissionManager = stub(PermissionManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("hasPermission".equals(method.getName()) && args.length == 3 && args[1] instanceof Issue)
+                    return ((Issue) args[1]).getId() % 10 != 0;
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("SHUTDOWN");
+        } finally {
+            stmt.close();
+            conn.close();
+        }
+    }
+
+    @Benchmark
+    public IssueIdSet transitionCount() throws SQLException {
+        return evaluate("transitionCount", TransitionCountFunction.createQuery(1, STATUS, 1, ">"));
+    }
+
+    @Benchmark
+    public IssueIdSet transitionDate() throws SQLException {
+        return evaluate("transitionDate", TransitionDateFunction.createQuery(since, STATUS));
+    }
+
+    @Benchmark
+    public IssueIdSet transitionReporter() throws SQLException {
+        return evaluate("transitionReporter", TransitionReporterFunction.createQuery(JiraDataset.userName(1), STATUS));
+    }
+
+    @Benchmark
+    public IssueIdSet transitionReporterGroup() throws SQLException {
+        return evaluate("transitionReporterGroup", TransitionReporterGroupFunction.createQuery(STATUS, JiraDataset.groupName(1)));
+    }
+
+    @Benchmark
+    public IssueIdSet userCommented() throws SQLException {
+        return evaluate("userCommented", UserCommentedIssuesJqlFunction.createQuery(since, JiraDataset.userName(1)));
+    }
+
+    @Benchmark
+    public IssueIdSet myCommented() throws SQLException {
+        JqlFunctionLimits.Budget budget = limits.start("myCommented", new FunctionOperand("myCommented"));
+        IssueIdSet issueIds;
+        try {
+            issueIds = budget.limit(commentedIssuesIndex.getCommentedIssues(JiraDataset.userName(1), since.getTime()));
+        } finally {
+            budget.finish();
+        }
+        IssueIdSet visible = issueIds.retainBrowsable(issueManager, permissionManager, null);
+        budget.report(null, visible);
+        return visible;
+    }
+
+    @Benchmark
+    public IssueIdSet usersCommented() throws SQLException {
+        return evaluate("usersCommented", UsersCommentedIssuesJqlFunction.createQuery(since, userNames));
+    }
+
+    @Benchmark
+    public IssueIdSet groupCommented() throws SQLException {
+        return evaluate("groupCommented", GroupCommentedIssuesJqlFunction.createQuery(since, JiraDataset.groupName(1)));
+    }
+
+    /**
+     * Evaluates the query the way the functions do.
+     */
+    private IssueIdSet evaluate(String function, IssueIdQuery query) throws SQLException {
+        JqlFunctionLimits.Budget budget = limits.start(function, new FunctionOperand(function));
+        IssueIdSet issueIds;
+        try {
+            issueIds = query.execute(conn, budget);
+        } finally {
+            budget.finish();
+        }
+        IssueIdSet visible = issueIds.retainBrowsable(issueManager, permissionManager, null);
+        budget.report(null, visible);
+        return visible;
+    }
+
+    private static Issue issue(final Long id) {
+        return stub(Issue.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getId".equals(method.getName()) ? id : defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(JqlFunctionBenchmark.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == double.class)
+            return 0.0;
+        if (type == float.class)
+            return 0.0f;
+        if (type == short.class)
+            return (short) 0;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == char.class)
+            return (char) 0;
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Multi-value arguments of workflow descriptors. Values are stored as <code>a&amp;b&amp;c&amp;</code>
+ * as before. Decoded sets are immutable and cached by the stored string, so validators parse
+ * the arguments of a descriptor once.
+ */
+public final class ArgumentCodec {
+    private static final char SEPARATOR = '&';
+    private static final int MAX_CACHED = 1000;
+
+    private static final ConcurrentMap<String, Set<String>> cache = new ConcurrentHashMap<String, Set<String>>();
+
+    private ArgumentCodec() {
+    }
+
+    public static String encode(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        if (values != null) {
+            for (String value : values)
+                sb.append(value).append(SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    public static String encode(Iterable<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values)
+            sb.append(value).append(SEPARATOR);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the immutable set of values in the stored order.
+     */
+    public static Set<String> decode(String raw) {
+        if (raw == null || raw.length() == 0)
+            return Collections.emptySet();
+
+        Set<String> values = cache.get(raw);
+        if (values == null) {
+            Set<String> parsed = new LinkedHashSet<String>();
+            int from = 0;
+            while (from < raw.length()) {
+                int to = raw.indexOf(SEPARATOR, from);
+                if (to < 0)
+                    to = raw.length();
+                if (to > from)
+                    parsed.add(raw.substring(from, to));
+                from = to + 1;
+            }
+            values = Collections.unmodifiableSet(parsed);
+            if (cache.size() >= MAX_CACHED)
+                cache.clear();
+            cache.put(raw, values);
+        }
+        return values;
+    }
+}
@@ -4,44 +4,70 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.issue.CustomFieldManager;
 import com.atlassian.jira.issue.MutableIssue;
 import com.atlassian.jira.issue.fields.CustomField;
-import com.atlassian.jira.user.util.UserManager;
 import com.atlassian.jira.workflow.function.issue.AbstractJiraFunctionProvider;
 import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.workflow.InvalidInputException;
 import com.opensymphony.workflow.WorkflowException;
+import ru.andreymarkelov.atlas.plugins.utils.UserLookupCache;
+import ru.andreymarkelov.atlas.plugins.utils.UserWorkloadCounter;
 
 /**
  * Assign to custom field value post function.
+ * If the field holds several users the one with the fewest open issues is chosen.
  *
  * @author Andrey Markelov
  */
 public class AssignPostFunction
     extends AbstractJiraFunctionProvider
 {
+    /**
+     * Logger.
+     */
+    private static Log log = LogFactory.getLog(AssignPostFunction.class);
+
     /**
      * Custom field manager.
      */
     private final CustomFieldManager cfMgr;
 
     /**
-     * User manager.
+     * User lookup cache.
+     */
+    private final UserLookupCache userLookupCache;
+
+    /**
+     * Open issues counter.
+     */
+    private final UserWorkloadCounter userWorkloadCounter;
+
+    /**
+     * Timer of execute calls.
      */
-    private final UserManager userManager;
+    private final PluginMetrics.Timer timer;
 
     /**
      * Constructor.
      */
     public AssignPostFunction(
         CustomFieldManager cfMgr,
-        UserManager userManager)
+        UserLookupCache userLookupCache,
+        UserWorkloadCounter userWorkloadCounter,
+        PluginMetrics pluginMetrics)
     {
         this.cfMgr = cfMgr;
-        this.userManager = userManager;
+        this.userLookupCache = userLookupCache;
+        this.userWorkloadCounter = userWorkloadCounter;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.POST_FUNCTION, "AssignPostFunction");
     }
 
     @Override
@@ -50,6 +76,23 @@ public class AssignPostFunction
         Map args,
         PropertySet ps)
     throws WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doExecute(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doExecute(
+        Map transientVars,
+        Map args,
+        PropertySet ps)
+    throws WorkflowException
     {
         MutableIssue issue = getIssue(transientVars);
 
@@ -78,17 +121,29 @@ public class AssignPostFunction
                 throw new InvalidInputException(String.format("The field '%s' is required", customField.getName()));
             }
 
-            String userName;
-            if (cfVal.toString().contains(":"))
+            User user;
+            if (cfVal instanceof Collection)
             {
-                userName = cfVal.toString().substring(0, cfVal.toString().indexOf(":"));
+                List<User> candidates = new ArrayList<User>();
+                for (Object val : (Collection<?>) cfVal)
+                {
+                    User candidate = toUser(val);
+                    if (candidate != null)
+                    {
+                        candidates.add(candidate);
+                    }
+                }
+                user = userWorkloadCounter.getLeastLoaded(candidates);
+                if (user != null && log.isDebugEnabled())
+                {
+                    log.debug("AssignPostFunction::execute - Chose " + user.getName() + " with " + userWorkloadCounter.getOpenIssues(user.getName()) + " open issues for " + issue.getKey());
+                }
             }
             else
             {
-                userName = cfVal.toString();
+                user = toUser(cfVal);
             }
 
-            User user = userManager.getUser(userName);
             if (user != null)
             {
                 issue.setAssignee(user);
@@ -99,4 +154,27 @@ public class AssignPostFunction
             }
         }
     }
+
+    /**
+     * Resolve custom field value to user.
+     */
+    private User toUser(Object val)
+    {
+        if (val instanceof User)
+        {
+            return (User) val;
+        }
+
+        String userName;
+        if (val.toString().contains(":"))
+        {
+            userName = val.toString().substring(0, val.toString().indexOf(":"));
+        }
+        else
+        {
+            userName = val.toString();
+        }
+
+        return userLookupCache.getUser(userName);
+    }
 }
@@ -22,12 +22,40 @@ import com.opensymphony.workflow.WorkflowException;
 public class AssignToStepActorFunction
     extends AbstractJiraFunctionProvider
 {
+    private final PluginMetrics.Timer timer;
+
+    /**
+     * Constructor.
+     */
+    public AssignToStepActorFunction(
+        PluginMetrics pluginMetrics)
+    {
+        this.timer = pluginMetrics.getTimer(PluginMetrics.POST_FUNCTION, "AssignToStepActorFunction");
+    }
+
     @Override
     public void execute(
         Map transientVars,
         Map args,
         PropertySet ps)
     throws WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doExecute(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doExecute(
+        Map transientVars,
+        Map args,
+        PropertySet ps)
+    throws WorkflowException
     {
         //--> current status
         MutableIssue issue = getIssue(transientVars);
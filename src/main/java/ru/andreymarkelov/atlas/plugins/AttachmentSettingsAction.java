@@ -0,0 +1,167 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
+import com.atlassian.jira.web.action.JiraWebActionSupport;
+import ru.andreymarkelov.atlas.plugins.utils.AttachmentEventFilter;
+import ru.andreymarkelov.atlas.plugins.utils.AttachmentFooterTemplates;
+
+/**
+ * Administration page of the attachment comments.
+ */
+public class AttachmentSettingsAction extends JiraWebActionSupport {
+    private final AttachmentFooterTemplates footerTemplates;
+    private final AttachmentEventFilter eventFilter;
+    private final PermissionManager permissionManager;
+    private final ProjectManager projectManager;
+
+    private String projectKey;
+    private String fileTemplate;
+    private String imageTemplate;
+    private String projects;
+    private String eventTypes;
+    private boolean saved;
+
+    public AttachmentSettingsAction(
+            AttachmentFooterTemplates footerTemplates,
+            AttachmentEventFilter eventFilter,
+            PermissionManager permissionManager,
+            ProjectManager projectManager) {
+        this.footerTemplates = footerTemplates;
+        this.eventFilter = eventFilter;
+        this.permissionManager = permissionManager;
+        this.projectManager = projectManager;
+    }
+
+    private boolean hasAdminPermission() {
+        return getLoggedInUser() != null && permissionManager.hasPermission(Permissions.ADMINISTER, getLoggedInUser());
+    }
+
+    private String getProjectKeyValue() {
+        return Utils.isValidStr(projectKey) ? projectKey.trim() : null;
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        String[] templates = footerTemplates.getTemplates(getProjectKeyValue());
+        fileTemplate = templates[0];
+        imageTemplate = templates[1];
+        projects = eventFilter.getProjects();
+        eventTypes = eventFilter.getEventTypes();
+        return INPUT;
+    }
+
+    @Override
+    protected void doValidation() {
+        String key = getProjectKeyValue();
+        if (key != null && projectManager.getProjectObjByKey(key) == null)
+            addError("projectKey", getText("utils.admin.attachments.error.project"));
+    }
+
+    @Override
+    @RequiresXsrfCheck
+    protected String doExecute() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        footerTemplates.setTemplates(getProjectKeyValue(), fileTemplate, imageTemplate);
+        return getRedirect("UtilsAttachmentSettings!default.jspa?saved=true");
+    }
+
+    @RequiresXsrfCheck
+    public String doFilter() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        if (projects != null) {
+            for (String key : projects.split(",")) {
+                if (key.trim().length() > 0 && projectManager.getProjectObjByKey(key.trim()) == null) {
+                    addError("projects", getText("utils.admin.attachments.error.project"));
+                    return ERROR;
+                }
+            }
+        }
+
+        try {
+            eventFilter.setFilter(projects, eventTypes);
+        } catch (NumberFormatException e) {
+            addError("eventTypes", getText("utils.admin.attachments.error.eventtypes"));
+            return ERROR;
+        }
+        return getRedirect("UtilsAttachmentSettings!default.jspa?saved=true");
+    }
+
+    @RequiresXsrfCheck
+    public String doReset() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        eventFilter.resetCounters();
+        return getRedirect("UtilsAttachmentSettings!default.jspa");
+    }
+
+    public AttachmentEventFilter getEventFilter() {
+        return eventFilter;
+    }
+
+    public String getDefaultFileTemplate() {
+        return AttachmentFooterTemplates.DEFAULT_FILE_TEMPLATE;
+    }
+
+    public String getDefaultImageTemplate() {
+        return AttachmentFooterTemplates.DEFAULT_IMAGE_TEMPLATE;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public void setProjectKey(String projectKey) {
+        this.projectKey = projectKey;
+    }
+
+    public String getFileTemplate() {
+        return fileTemplate;
+    }
+
+    public void setFileTemplate(String fileTemplate) {
+        this.fileTemplate = fileTemplate;
+    }
+
+    public String getImageTemplate() {
+        return imageTemplate;
+    }
+
+    public void setImageTemplate(String imageTemplate) {
+        this.imageTemplate = imageTemplate;
+    }
+
+    public String getProjects() {
+        return projects;
+    }
+
+    public void setProjects(String projects) {
+        this.projects = projects;
+    }
+
+    public String getEventTypes() {
+        return eventTypes;
+    }
+
+    public void setEventTypes(String eventTypes) {
+        this.eventTypes = eventTypes;
+    }
+
+    public boolean isSaved() {
+        return saved;
+    }
+
+    public void setSaved(boolean saved) {
+        this.saved = saved;
+    }
+}
@@ -5,7 +5,7 @@
 package ru.andreymarkelov.atlas.plugins;
 
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.Set;
 import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.ComponentManager;
 import com.atlassian.jira.security.groups.GroupManager;
@@ -22,13 +22,17 @@ public class CommentValidator
 {
     private final GroupManager groupManager;
 
+    private final PluginMetrics.Timer timer;
+
     /**
      * Constructor.
      */
     public CommentValidator(
-        GroupManager groupManager)
+        GroupManager groupManager,
+        PluginMetrics pluginMetrics)
     {
         this.groupManager = groupManager;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.VALIDATOR, "CommentValidator");
     }
 
     @Override
@@ -36,6 +40,22 @@ public class CommentValidator
         Map transientVars, Map args,
         PropertySet ps)
     throws InvalidInputException, WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doValidate(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doValidate(
+        Map transientVars, Map args,
+        PropertySet ps)
+    throws InvalidInputException, WorkflowException
     {
         try
         {
@@ -57,14 +77,16 @@ public class CommentValidator
         String comment = (String) transientVars.get("comment");
         if (!Utils.isValidStr(comment))
         {
-            User user = ComponentManager.getInstance().getJiraAuthenticationContext().getLoggedInUser();
-            StringTokenizer st = new StringTokenizer(selectedGroupsListSet, "&");
-            while (st.hasMoreTokens())
+            Set<String> selectedGroups = ArgumentCodec.decode(selectedGroupsListSet);
+            if (!selectedGroups.isEmpty())
             {
-                String group = st.nextToken();
-                if (groupManager.getGroupNamesForUser(user).contains(group))
+                User user = ComponentManager.getInstance().getJiraAuthenticationContext().getLoggedInUser();
+                for (String group : groupManager.getGroupNamesForUser(user))
                 {
-                    return;
+                    if (selectedGroups.contains(group))
+                    {
+                        return;
+                    }
                 }
             }
             throw new InvalidInputException(
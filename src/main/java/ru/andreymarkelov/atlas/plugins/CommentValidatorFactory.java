@@ -4,19 +4,15 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.StringTokenizer;
 import java.util.TreeSet;
-import com.atlassian.crowd.embedded.api.Group;
 import com.atlassian.jira.plugin.workflow.AbstractWorkflowPluginFactory;
 import com.atlassian.jira.plugin.workflow.WorkflowPluginValidatorFactory;
-import com.atlassian.jira.security.groups.GroupManager;
 import com.opensymphony.workflow.loader.AbstractDescriptor;
 import com.opensymphony.workflow.loader.ValidatorDescriptor;
+import ru.andreymarkelov.atlas.plugins.utils.WorkflowCatalog;
 
 /**
  * Comment validator factory.
@@ -28,17 +24,17 @@ public class CommentValidatorFactory
     implements WorkflowPluginValidatorFactory
 {
     /**
-     * Group manager.
+     * Workflow catalog.
      */
-    private final GroupManager groupManager;
+    private final WorkflowCatalog catalog;
 
     /**
      * Constructor.
      */
     public CommentValidatorFactory(
-        GroupManager groupManager)
+        WorkflowCatalog catalog)
     {
-        this.groupManager = groupManager;
+        this.catalog = catalog;
     }
 
     public Map<String, Object> getDescriptorParams(
@@ -86,19 +82,7 @@ public class CommentValidatorFactory
         AbstractDescriptor descriptor,
         String param)
     {
-        Set<String> params = new TreeSet<String>();
-
-        String paramStr = getParam(descriptor, param);
-        if (paramStr != null)
-        {
-            StringTokenizer st = new StringTokenizer(paramStr, "&");
-            while (st.hasMoreTokens())
-            {
-                params.add(st.nextToken());
-            }
-        }
-
-        return params;
+        return new TreeSet<String>(ArgumentCodec.decode(getParam(descriptor, param)));
     }
 
     @Override
@@ -106,8 +90,7 @@ public class CommentValidatorFactory
         Map<String, Object> velocityParams,
         AbstractDescriptor descriptor)
     {
-        Collection<Group> groups = groupManager.getAllGroups();
-        velocityParams.put(Consts.ALL_GROUPS, Collections.unmodifiableCollection(groups));
+        //--> other groups are loaded by the page
         velocityParams.put(Consts.SELECTED_GROUPS_SET, getSetParams(descriptor, Consts.SELECTED_GROUPS));
     }
 
@@ -115,8 +98,6 @@ public class CommentValidatorFactory
     protected void getVelocityParamsForInput(
         Map<String, Object> velocityParams)
     {
-        Collection<Group> groups = groupManager.getAllGroups();
-        velocityParams.put(Consts.ALL_GROUPS, Collections.unmodifiableCollection(groups));
         velocityParams.put(Consts.SELECTED_GROUPS_SET, new TreeSet<String>());
     }
 
@@ -53,4 +53,9 @@ public interface Consts
      * Is clone with links?
      */
     String ISSUE_CLONE_LINKS = "isCloneWithLinks";
+
+    /**
+     * Set estimate to subtasks too?
+     */
+    String ESTIMATE_SUBTASKS = "estimateSubtasks";
 }
@@ -4,18 +4,30 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import com.atlassian.core.util.InvalidDurationException;
+import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.ComponentManager;
+import com.atlassian.jira.event.type.EventDispatchOption;
 import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.MutableIssue;
 import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.index.IndexException;
+import com.atlassian.jira.issue.index.IssueIndexManager;
 import com.atlassian.jira.security.JiraAuthenticationContext;
 import com.atlassian.jira.util.I18nHelper;
+import com.atlassian.jira.util.ImportUtils;
 import com.atlassian.jira.workflow.function.issue.AbstractJiraFunctionProvider;
 import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.workflow.InvalidInputException;
 import com.opensymphony.workflow.WorkflowException;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
 
 
 /**
@@ -25,22 +37,70 @@ import com.opensymphony.workflow.WorkflowException;
  */
 public class EstimatePostFunction extends AbstractJiraFunctionProvider
 {
+    /**
+     * Logger.
+     */
+    private static Log log = LogFactory.getLog(EstimatePostFunction.class);
+
     /**
      * Custom field manager.
      */
     private final CustomFieldManager cfMgr;
 
+    /**
+     * Issue manager.
+     */
+    private final IssueManager issueManager;
+
+    /**
+     * Index manager.
+     */
+    private final IssueIndexManager indexManager;
+
+    /**
+     * Duration parser.
+     */
+    private final DurationParser durationParser;
+
+    /**
+     * Timer of execute calls.
+     */
+    private final PluginMetrics.Timer timer;
+
     /**
      * Constructor.
      */
-    public EstimatePostFunction(CustomFieldManager cfMgr)
+    public EstimatePostFunction(
+        CustomFieldManager cfMgr,
+        DurationParser durationParser,
+        IssueManager issueManager,
+        IssueIndexManager indexManager,
+        PluginMetrics pluginMetrics)
     {
         this.cfMgr = cfMgr;
+        this.durationParser = durationParser;
+        this.issueManager = issueManager;
+        this.indexManager = indexManager;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.POST_FUNCTION, "EstimatePostFunction");
     }
 
     @Override
     public void execute(Map transientVars, Map args, PropertySet ps)
         throws WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doExecute(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doExecute(Map transientVars, Map args, PropertySet ps)
+        throws WorkflowException
     {
         MutableIssue issue = getIssue(transientVars);
 
@@ -80,13 +140,7 @@ public class EstimatePostFunction extends AbstractJiraFunctionProvider
             long originalEstimate;
             try
             {
-                originalEstimate = ComponentManager
-                    .getInstance()
-                    .getJiraDurationUtils()
-                    .parseDuration(
-                        cfStrVal,
-                        ComponentManager.getInstance()
-                            .getJiraAuthenticationContext().getLocale());
+                originalEstimate = durationParser.parseStoredDuration(cfStrVal);
             }
             catch (InvalidDurationException e)
             {
@@ -100,6 +154,79 @@ public class EstimatePostFunction extends AbstractJiraFunctionProvider
             }
             issue.setOriginalEstimate(originalEstimate);
             issue.setEstimate(originalEstimate);
+
+            if (Boolean.parseBoolean((String) args.get(Consts.ESTIMATE_SUBTASKS)))
+            {
+                estimateSubtasks(issue, customField, originalEstimate, getCaller(transientVars, args));
+            }
+        }
+    }
+
+    /**
+     * Sets estimates of all subtasks in one pass. A subtask gets its own value of the field
+     * or the value of the parent. Subtasks are reindexed together at the end.
+     * The batch covers the subtasks of a single transitioned issue only: a bulk transition
+     * runs the function once per issue, so every issue of it gets its own reindex.
+     * Parent rollups are not stored, Jira sums the estimates of subtasks when it shows them.
+     */
+    private void estimateSubtasks(
+        Issue parent,
+        CustomField customField,
+        long parentEstimate,
+        User user)
+    {
+        List<Issue> updated = new ArrayList<Issue>();
+
+        boolean wasIndexing = ImportUtils.isIndexIssues();
+        ImportUtils.setIndexIssues(false);
+        try
+        {
+            for (Issue subTask : parent.getSubTaskObjects())
+            {
+                MutableIssue mutableSubTask = issueManager.getIssueObject(subTask.getId());
+                if (mutableSubTask == null)
+                {
+                    continue;
+                }
+
+                long estimate = parentEstimate;
+                Object cfVal = mutableSubTask.getCustomFieldValue(customField);
+                if (cfVal != null)
+                {
+                    try
+                    {
+                        long ownEstimate = durationParser.parseStoredDuration(cfVal.toString());
+                        if (ownEstimate > 0)
+                        {
+                            estimate = ownEstimate;
+                        }
+                    }
+                    catch (InvalidDurationException e)
+                    {
+                        //--> parent value
+                    }
+                }
+
+                mutableSubTask.setOriginalEstimate(estimate);
+                mutableSubTask.setEstimate(estimate);
+                updated.add(issueManager.updateIssue(user, mutableSubTask, EventDispatchOption.DO_NOT_DISPATCH, false));
+            }
+        }
+        finally
+        {
+            ImportUtils.setIndexIssues(wasIndexing);
+        }
+
+        if (!updated.isEmpty())
+        {
+            try
+            {
+                indexManager.reIndexIssueObjects(updated);
+            }
+            catch (IndexException e)
+            {
+                log.error("EstimatePostFunction::estimateSubtasks - Cannot reindex subtasks", e);
+            }
         }
     }
 }
@@ -31,10 +31,22 @@ public class EstimatePostFunctionFactory
             functionParams.containsKey(Consts.CUSTOM_FIELD_ID))
         {
             map.put(Consts.CUSTOM_FIELD_ID, extractSingleParam(functionParams, Consts.CUSTOM_FIELD_ID));
-            return map;
+        }
+        else
+        {
+            map.put(Consts.CUSTOM_FIELD_ID, "");
+        }
+
+        if (functionParams != null &&
+            functionParams.containsKey(Consts.ESTIMATE_SUBTASKS))
+        {
+            map.put(Consts.ESTIMATE_SUBTASKS, Boolean.TRUE);
+        }
+        else
+        {
+            map.put(Consts.ESTIMATE_SUBTASKS, Boolean.FALSE);
         }
 
-        map.put(Consts.CUSTOM_FIELD_ID, "");
         return map;
     }
 
@@ -69,6 +81,7 @@ public class EstimatePostFunctionFactory
         AbstractDescriptor descriptor)
     {
         velocityParams.put(Consts.CUSTOM_FIELD_ID, getParam(descriptor, Consts.CUSTOM_FIELD_ID));
+        velocityParams.put(Consts.ESTIMATE_SUBTASKS, getParam(descriptor, Consts.ESTIMATE_SUBTASKS));
     }
 
     @Override
@@ -76,6 +89,7 @@ public class EstimatePostFunctionFactory
         Map<String, Object> velocityParams)
     {
         velocityParams.put(Consts.CUSTOM_FIELD_ID, "");
+        velocityParams.put(Consts.ESTIMATE_SUBTASKS, "false");
     }
 
     @Override
@@ -84,5 +98,6 @@ public class EstimatePostFunctionFactory
         AbstractDescriptor descriptor)
     {
         velocityParams.put(Consts.CUSTOM_FIELD_ID, getParam(descriptor, Consts.CUSTOM_FIELD_ID));
+        velocityParams.put(Consts.ESTIMATE_SUBTASKS, getParam(descriptor, Consts.ESTIMATE_SUBTASKS));
     }
 }
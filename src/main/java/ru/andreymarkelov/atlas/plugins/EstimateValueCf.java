@@ -1,14 +1,17 @@
 package ru.andreymarkelov.atlas.plugins;
 
 import com.atlassian.core.util.InvalidDurationException;
-import com.atlassian.jira.ComponentManager;
 import com.atlassian.jira.issue.customfields.impl.FieldValidationException;
 import com.atlassian.jira.issue.customfields.impl.GenericTextCFType;
 import com.atlassian.jira.issue.customfields.manager.GenericConfigManager;
 import com.atlassian.jira.issue.customfields.persistence.CustomFieldValuePersister;
+import com.atlassian.jira.issue.fields.config.FieldConfig;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
 
 /**
- * Estimate value custom field.
+ * Estimate value custom field. The value is entered in the locale of the user and stored as text
+ * in the default locale of Jira, so indexing and sorting read it the same way for everybody.
+ * The estimate value searcher indexes it in seconds as well.
  * 
  * @author Andrey Markelov
  */
@@ -20,14 +23,21 @@ public class EstimateValueCf
         T visinEstimateValue(EstimateValueCf estimateValueCf);
     }
 
+    /**
+     * Duration parser.
+     */
+    private final DurationParser durationParser;
+
     /**
      * Constructor.
      */
     public EstimateValueCf(
         CustomFieldValuePersister customFieldValuePersister,
-        GenericConfigManager genericConfigManager)
+        GenericConfigManager genericConfigManager,
+        DurationParser durationParser)
     {
         super(customFieldValuePersister, genericConfigManager);
+        this.durationParser = durationParser;
     }
 
     @Override
@@ -46,18 +56,50 @@ public class EstimateValueCf
         final String string)
     throws FieldValidationException
     {
-        ComponentManager.getInstance().getJiraAuthenticationContext();
         final String estimateTime = (string == null) ? null : string.trim();
 
         try
         {
-            ComponentManager.getInstance().getJiraDurationUtils().parseDuration(estimateTime, getI18nBean().getLocale());
+            return durationParser.toDefaultLocale(estimateTime, getI18nBean().getLocale());
         }
         catch (InvalidDurationException e)
         {
             throw new FieldValidationException(getI18nBean().getText("utils.estimatepf.error.invalidformat"));
         }
+    }
+
+    /**
+     * Returns the estimate in seconds or <code>null</code> if the value is not a duration.
+     */
+    public Long getSeconds(
+        final String value)
+    {
+        try
+        {
+            return durationParser.parseStoredDuration(value);
+        }
+        catch (InvalidDurationException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Compares values by duration. Searches sort by the indexed seconds instead, see {@link EstimateValueSorter}.
+     */
+    @Override
+    public int compare(
+        final String value1,
+        final String value2,
+        final FieldConfig fieldConfig)
+    {
+        Long seconds1 = getSeconds(value1);
+        Long seconds2 = getSeconds(value2);
+        if (seconds1 == null || seconds2 == null)
+        {
+            return super.compare(value1, value2, fieldConfig);
+        }
 
-        return estimateTime;
+        return seconds1.compareTo(seconds2);
     }
 }
@@ -0,0 +1,78 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.core.util.InvalidDurationException;
+import com.atlassian.jira.jql.operand.JqlOperandResolver;
+import com.atlassian.jira.jql.operand.QueryLiteral;
+import com.atlassian.jira.jql.query.ClauseQueryFactory;
+import com.atlassian.jira.jql.query.QueryCreationContext;
+import com.atlassian.jira.jql.query.QueryFactoryResult;
+import com.atlassian.query.clause.TerminalClause;
+import com.atlassian.query.operator.Operator;
+import org.apache.lucene.document.NumberTools;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
+
+import java.util.List;
+
+/**
+ * Query factory of the estimate value field. Relational clauses (<code>estimateValue &gt; 2d</code>)
+ * are range queries over the indexed seconds, other clauses are handled as exact text.
+ */
+public class EstimateValueClauseQueryFactory implements ClauseQueryFactory {
+    private final String secondsFieldId;
+    private final JqlOperandResolver jqlOperandResolver;
+    private final DurationParser durationParser;
+    private final ClauseQueryFactory textQueryFactory;
+
+    public EstimateValueClauseQueryFactory(
+            String customFieldId,
+            JqlOperandResolver jqlOperandResolver,
+            DurationParser durationParser,
+            ClauseQueryFactory textQueryFactory) {
+        this.secondsFieldId = EstimateValueIndexer.getSecondsFieldId(customFieldId);
+        this.jqlOperandResolver = jqlOperandResolver;
+        this.durationParser = durationParser;
+        this.textQueryFactory = textQueryFactory;
+    }
+
+    static boolean isRelational(Operator operator) {
+        return operator == Operator.GREATER_THAN || operator == Operator.GREATER_THAN_EQUALS
+                || operator == Operator.LESS_THAN || operator == Operator.LESS_THAN_EQUALS;
+    }
+
+    @Override
+    public QueryFactoryResult getQuery(QueryCreationContext queryCreationContext, TerminalClause terminalClause) {
+        Operator operator = terminalClause.getOperator();
+        if (!isRelational(operator))
+            return textQueryFactory.getQuery(queryCreationContext, terminalClause);
+
+        List<QueryLiteral> literals = jqlOperandResolver.getValues(queryCreationContext, terminalClause.getOperand(), terminalClause);
+        if (literals == null || literals.size() != 1 || literals.get(0).isEmpty())
+            return QueryFactoryResult.createFalseResult();
+
+        String bound;
+        try {
+            bound = NumberTools.longToString(durationParser.parseDuration(literals.get(0).asString()));
+        } catch (InvalidDurationException e) {
+            return QueryFactoryResult.createFalseResult();
+        }
+
+        Query query;
+        switch (operator) {
+            case GREATER_THAN:
+                query = new TermRangeQuery(secondsFieldId, bound, null, false, true);
+                break;
+            case GREATER_THAN_EQUALS:
+                query = new TermRangeQuery(secondsFieldId, bound, null, true, true);
+                break;
+            case LESS_THAN:
+                query = new TermRangeQuery(secondsFieldId, null, bound, true, false);
+                break;
+            default:
+                query = new TermRangeQuery(secondsFieldId, null, bound, true, true);
+                break;
+        }
+        return new QueryFactoryResult(query);
+    }
+}
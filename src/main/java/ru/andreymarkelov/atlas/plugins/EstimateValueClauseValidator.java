@@ -0,0 +1,47 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.jql.operand.JqlOperandResolver;
+import com.atlassian.jira.jql.operand.QueryLiteral;
+import com.atlassian.jira.jql.validator.ClauseValidator;
+import com.atlassian.jira.util.MessageSet;
+import com.atlassian.jira.util.MessageSetImpl;
+import com.atlassian.query.clause.TerminalClause;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
+
+import java.util.List;
+
+/**
+ * Validator of the estimate value clauses. Values of relational clauses must be durations,
+ * other clauses are validated as exact text.
+ */
+public class EstimateValueClauseValidator implements ClauseValidator {
+    private final JqlOperandResolver jqlOperandResolver;
+    private final DurationParser durationParser;
+    private final ClauseValidator textValidator;
+
+    public EstimateValueClauseValidator(JqlOperandResolver jqlOperandResolver, DurationParser durationParser, ClauseValidator textValidator) {
+        this.jqlOperandResolver = jqlOperandResolver;
+        this.durationParser = durationParser;
+        this.textValidator = textValidator;
+    }
+
+    @Override
+    public MessageSet validate(User searcher, TerminalClause terminalClause) {
+        if (!EstimateValueClauseQueryFactory.isRelational(terminalClause.getOperator()))
+            return textValidator.validate(searcher, terminalClause);
+
+        MessageSet messages = new MessageSetImpl();
+        List<QueryLiteral> literals = jqlOperandResolver.getValues(searcher, terminalClause.getOperand(), terminalClause);
+        if (literals != null) {
+            for (QueryLiteral literal : literals) {
+                if (literal.isEmpty() || !durationParser.isValid(literal.asString())) {
+                    messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText(
+                        "utils.estimatevalue.incorrectduration", literal.asString(), terminalClause.getName()));
+                }
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,58 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.core.util.InvalidDurationException;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.index.indexers.impl.AbstractCustomFieldIndexer;
+import com.atlassian.jira.web.FieldVisibilityManager;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumberTools;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
+
+/**
+ * Indexes the estimate value as text and, in a separate document field, as seconds,
+ * so relational clauses and sorting do not parse the text again.
+ */
+public class EstimateValueIndexer extends AbstractCustomFieldIndexer {
+    private final CustomField customField;
+    private final DurationParser durationParser;
+
+    public EstimateValueIndexer(FieldVisibilityManager fieldVisibilityManager, CustomField customField, DurationParser durationParser) {
+        super(fieldVisibilityManager, customField);
+        this.customField = customField;
+        this.durationParser = durationParser;
+    }
+
+    /**
+     * Returns the document field with the estimate in seconds.
+     */
+    public static String getSecondsFieldId(String customFieldId) {
+        return customFieldId + "_seconds";
+    }
+
+    @Override
+    public void addDocumentFieldsSearchable(Document doc, Issue issue) {
+        addDocumentFields(doc, issue, Field.Index.NOT_ANALYZED_NO_NORMS);
+    }
+
+    @Override
+    public void addDocumentFieldsNotSearchable(Document doc, Issue issue) {
+        addDocumentFields(doc, issue, Field.Index.NO);
+    }
+
+    private void addDocumentFields(Document doc, Issue issue, Field.Index indexType) {
+        Object value = customField.getValue(issue);
+        if (value == null)
+            return;
+
+        String text = value.toString();
+        doc.add(new Field(getDocumentFieldId(), text, Field.Store.YES, indexType));
+        try {
+            long seconds = durationParser.parseStoredDuration(text);
+            doc.add(new Field(getSecondsFieldId(getDocumentFieldId()), NumberTools.longToString(seconds), Field.Store.YES, indexType));
+        } catch (InvalidDurationException e) {
+            //--> not searchable by relational operators
+        }
+    }
+}
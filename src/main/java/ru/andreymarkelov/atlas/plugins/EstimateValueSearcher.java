@@ -0,0 +1,107 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.JiraDataTypes;
+import com.atlassian.jira.issue.customfields.CustomFieldSearcher;
+import com.atlassian.jira.issue.customfields.SingleValueCustomFieldValueProvider;
+import com.atlassian.jira.issue.customfields.SortableCustomFieldSearcher;
+import com.atlassian.jira.issue.customfields.searchers.AbstractInitializationCustomFieldSearcher;
+import com.atlassian.jira.issue.customfields.searchers.CustomFieldSearcherClauseHandler;
+import com.atlassian.jira.issue.customfields.searchers.SimpleCustomFieldSearcherClauseHandler;
+import com.atlassian.jira.issue.customfields.searchers.information.CustomFieldSearcherInformation;
+import com.atlassian.jira.issue.customfields.searchers.renderer.CustomFieldRenderer;
+import com.atlassian.jira.issue.customfields.searchers.transformer.CustomFieldInputHelper;
+import com.atlassian.jira.issue.customfields.searchers.transformer.ExactTextCustomFieldSearchInputTransformer;
+import com.atlassian.jira.issue.customfields.statistics.CustomFieldStattable;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.index.indexers.FieldIndexer;
+import com.atlassian.jira.issue.search.LuceneFieldSorter;
+import com.atlassian.jira.issue.search.searchers.information.SearcherInformation;
+import com.atlassian.jira.issue.search.searchers.renderer.SearchRenderer;
+import com.atlassian.jira.issue.search.searchers.transformer.SearchInputTransformer;
+import com.atlassian.jira.issue.statistics.StatisticsMapper;
+import com.atlassian.jira.jql.operand.JqlOperandResolver;
+import com.atlassian.jira.jql.operator.OperatorClasses;
+import com.atlassian.jira.jql.query.ActualValueCustomFieldClauseQueryFactory;
+import com.atlassian.jira.jql.util.ExactTextIndexValueConverter;
+import com.atlassian.jira.jql.validator.ExactTextCustomFieldValidator;
+import com.atlassian.jira.web.FieldVisibilityManager;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Searcher of the estimate value field. Works as the exact text searcher and additionally
+ * supports relational operators which are evaluated on the indexed seconds. Issues are sorted
+ * by the indexed seconds and the field can be used in dashboard statistics.
+ */
+public class EstimateValueSearcher extends AbstractInitializationCustomFieldSearcher
+        implements CustomFieldSearcher, SortableCustomFieldSearcher, CustomFieldStattable {
+    private final FieldVisibilityManager fieldVisibilityManager;
+    private final JqlOperandResolver jqlOperandResolver;
+    private final CustomFieldInputHelper customFieldInputHelper;
+    private final DurationParser durationParser;
+
+    private volatile CustomFieldSearcherInformation searcherInformation;
+    private volatile SearchInputTransformer searchInputTransformer;
+    private volatile SearchRenderer searchRenderer;
+    private volatile CustomFieldSearcherClauseHandler customFieldSearcherClauseHandler;
+
+    public EstimateValueSearcher(
+            FieldVisibilityManager fieldVisibilityManager,
+            JqlOperandResolver jqlOperandResolver,
+            CustomFieldInputHelper customFieldInputHelper,
+            DurationParser durationParser) {
+        this.fieldVisibilityManager = fieldVisibilityManager;
+        this.jqlOperandResolver = jqlOperandResolver;
+        this.customFieldInputHelper = customFieldInputHelper;
+        this.durationParser = durationParser;
+    }
+
+    @Override
+    public void init(CustomField field) {
+        FieldIndexer indexer = new EstimateValueIndexer(fieldVisibilityManager, field, durationParser);
+        searcherInformation = new CustomFieldSearcherInformation(
+            field.getId(), field.getNameKey(), Collections.<FieldIndexer>singletonList(indexer), new AtomicReference<CustomField>(field));
+        searchRenderer = new CustomFieldRenderer(
+            field.getClauseNames(), getDescriptor(), field, new SingleValueCustomFieldValueProvider(), fieldVisibilityManager);
+        searchInputTransformer = new ExactTextCustomFieldSearchInputTransformer(
+            field, field.getClauseNames(), searcherInformation.getId(), customFieldInputHelper);
+
+        EstimateValueClauseQueryFactory queryFactory = new EstimateValueClauseQueryFactory(field.getId(), jqlOperandResolver, durationParser,
+            new ActualValueCustomFieldClauseQueryFactory(field.getId(), jqlOperandResolver, new ExactTextIndexValueConverter(), false));
+        EstimateValueClauseValidator validator = new EstimateValueClauseValidator(jqlOperandResolver, durationParser, new ExactTextCustomFieldValidator());
+        customFieldSearcherClauseHandler = new SimpleCustomFieldSearcherClauseHandler(
+            validator, queryFactory, OperatorClasses.EQUALITY_AND_RELATIONAL_WITH_EMPTY, JiraDataTypes.TEXT);
+    }
+
+    @Override
+    public SearcherInformation<CustomField> getSearchInformation() {
+        return searcherInformation;
+    }
+
+    @Override
+    public SearchInputTransformer getSearchInputTransformer() {
+        return searchInputTransformer;
+    }
+
+    @Override
+    public SearchRenderer getSearchRenderer() {
+        return searchRenderer;
+    }
+
+    @Override
+    public CustomFieldSearcherClauseHandler getCustomFieldSearcherClauseHandler() {
+        return customFieldSearcherClauseHandler;
+    }
+
+    @Override
+    public LuceneFieldSorter getSorter(CustomField customField) {
+        return new EstimateValueSorter(customField.getId());
+    }
+
+    @Override
+    public StatisticsMapper getStatisticsMapper(CustomField customField) {
+        return new EstimateValueStatisticsMapper(customField, durationParser);
+    }
+}
@@ -0,0 +1,50 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.issue.search.LuceneFieldSorter;
+import org.apache.lucene.document.NumberTools;
+
+import java.util.Comparator;
+
+/**
+ * Sorts issues by the estimate in seconds indexed by {@link EstimateValueIndexer},
+ * so sorting does not parse the values. Issues without a valid estimate are sorted last.
+ */
+public class EstimateValueSorter implements LuceneFieldSorter<Long> {
+    private static final Comparator<Long> ORDER = new Comparator<Long>() {
+        @Override
+        public int compare(Long o1, Long o2) {
+            return o1.compareTo(o2);
+        }
+    };
+
+    private final String secondsFieldId;
+
+    public EstimateValueSorter(String customFieldId) {
+        this.secondsFieldId = EstimateValueIndexer.getSecondsFieldId(customFieldId);
+    }
+
+    @Override
+    public String getDocumentConstant() {
+        return secondsFieldId;
+    }
+
+    @Override
+    public Long getValueFromLuceneField(String documentValue) {
+        return documentValue != null ? NumberTools.stringToLong(documentValue) : null;
+    }
+
+    @Override
+    public Comparator<Long> getComparator() {
+        return ORDER;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EstimateValueSorter && secondsFieldId.equals(((EstimateValueSorter) o).secondsFieldId);
+    }
+
+    @Override
+    public int hashCode() {
+        return secondsFieldId.hashCode();
+    }
+}
@@ -0,0 +1,104 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.core.util.InvalidDurationException;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.search.SearchRequest;
+import com.atlassian.jira.issue.statistics.StatisticsMapper;
+import com.atlassian.jira.jql.builder.JqlClauseBuilder;
+import com.atlassian.jira.jql.builder.JqlQueryBuilder;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Groups issues by the indexed estimate text for dashboard statistics. Groups are ordered by duration;
+ * every distinct value is parsed once per mapper. Groups stay on the text rather than on the indexed
+ * seconds because gadgets show a group as the field value and build its search link from it.
+ */
+public class EstimateValueStatisticsMapper implements StatisticsMapper<String> {
+    private final CustomField customField;
+    private final DurationParser durationParser;
+    private final ConcurrentMap<String, Long> seconds = new ConcurrentHashMap<String, Long>();
+    private final Comparator<String> comparator = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            long seconds1 = getSeconds(o1);
+            long seconds2 = getSeconds(o2);
+            if (seconds1 != seconds2)
+                return seconds1 < seconds2 ? -1 : 1;
+            return o1.compareTo(o2);
+        }
+    };
+
+    public EstimateValueStatisticsMapper(CustomField customField, DurationParser durationParser) {
+        this.customField = customField;
+        this.durationParser = durationParser;
+    }
+
+    @Override
+    public String getDocumentConstant() {
+        return customField.getId();
+    }
+
+    @Override
+    public String getValueFromLuceneField(String documentValue) {
+        return documentValue;
+    }
+
+    @Override
+    public Comparator<String> getComparator() {
+        return comparator;
+    }
+
+    @Override
+    public boolean isValidValue(String value) {
+        return true;
+    }
+
+    @Override
+    public boolean isFieldAlwaysPartOfAnIssue() {
+        return false;
+    }
+
+    @Override
+    public SearchRequest getSearchUrlSuffix(String value, SearchRequest searchRequest) {
+        if (searchRequest == null)
+            return null;
+
+        String clauseName = customField.getClauseNames().getPrimaryName();
+        JqlClauseBuilder builder = JqlQueryBuilder.newBuilder(searchRequest.getQuery()).where().defaultAnd();
+        if (value != null)
+            builder.addStringCondition(clauseName, value);
+        else
+            builder.addEmptyCondition(clauseName);
+        return new SearchRequest(builder.buildQuery());
+    }
+
+    /**
+     * Returns seconds of the value, invalid values are ordered last.
+     */
+    private long getSeconds(String value) {
+        Long valueSeconds = seconds.get(value);
+        if (valueSeconds == null) {
+            try {
+                valueSeconds = durationParser.parseStoredDuration(value);
+            } catch (InvalidDurationException e) {
+                valueSeconds = Long.MAX_VALUE;
+            }
+            seconds.put(value, valueSeconds);
+        }
+        return valueSeconds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EstimateValueStatisticsMapper && customField.getId().equals(((EstimateValueStatisticsMapper) o).customField.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return customField.getId().hashCode();
+    }
+}
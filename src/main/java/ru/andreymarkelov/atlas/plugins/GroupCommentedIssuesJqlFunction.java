@@ -0,0 +1,128 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.core.util.InvalidDurationException;
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.ComponentManager;
+import com.atlassian.jira.JiraDataType;
+import com.atlassian.jira.JiraDataTypes;
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.exception.DataAccessException;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.jql.operand.QueryLiteral;
+import com.atlassian.jira.jql.query.QueryCreationContext;
+import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.user.util.UserUtil;
+import com.atlassian.jira.util.MessageSet;
+import com.atlassian.jira.util.MessageSetImpl;
+import com.atlassian.query.clause.TerminalClause;
+import com.atlassian.query.operand.FunctionOperand;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * This JQL function finds all issues that were commented by members of a group in the last time.
+ * Group membership is joined in the same query.
+ */
+public class GroupCommentedIssuesJqlFunction extends AbstractJqlFunction {
+    private final static String SQL =
+            "SELECT DISTINCT\n" +
+            "    ja.issueid\n" +
+            "FROM\n" +
+            "    jiraaction ja,\n" +
+            "    cwd_membership m\n" +
+            "WHERE\n" +
+            "    ja.actiontype = 'comment'\n" +
+            "    AND ja.updated > ?\n" +
+            "    AND ja.updateauthor = m.child_name\n" +
+            "    AND m.parent_name = ?\n" +
+            "    AND m.membership_type = 'GROUP_USER'";
+
+    private final static Log log = LogFactory.getLog(GroupCommentedIssuesJqlFunction.class);
+    private final PermissionManager permissionManager;
+    private final UserUtil userUtil;
+    private final JqlFunctionLimits jqlFunctionLimits;
+    private final DurationParser durationParser;
+
+    public GroupCommentedIssuesJqlFunction(PermissionManager permissionManager, UserUtil userUtil, JqlFunctionLimits jqlFunctionLimits, DurationParser durationParser) {
+        this.permissionManager = permissionManager;
+        this.userUtil = userUtil;
+        this.jqlFunctionLimits = jqlFunctionLimits;
+        this.durationParser = durationParser;
+    }
+
+    @Override
+    public JiraDataType getDataType() {
+        return JiraDataTypes.ISSUE;
+    }
+
+    @Override
+    public int getMinimumNumberOfExpectedArguments() {
+        return 2;
+    }
+
+    @Override
+    public MessageSet validate(User searcher, FunctionOperand operand, TerminalClause terminalClause) {
+        MessageSet messages = new MessageSetImpl();
+
+        List<String> keys = operand.getArgs();
+        if (keys.size() != 2) {
+            messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrectparameters", operand.getName()));
+        } else {
+            if (userUtil.getGroupObject(keys.get(0)) == null)
+                messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrectgroupparameter", operand.getName()));
+
+            if (!Utils.isValidTime(durationParser, keys.get(1)))
+                messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrecttimeparameter", operand.getName()));
+        }
+
+        jqlFunctionLimits.addWarnings(messages, operand);
+
+        return messages;
+    }
+
+    /**
+     * Creates the query of the function.
+     */
+    static IssueIdQuery createQuery(Timestamp since, String group) {
+        return new IssueIdQuery(SQL, since, group);
+    }
+
+    @Override
+    public List<QueryLiteral> getValues(QueryCreationContext context, FunctionOperand operand, TerminalClause terminalClause) {
+        List<String> keys = operand.getArgs();
+        String group = keys.get(0);
+        String time = keys.get(1);
+
+        long lastFindTime;
+        try {
+            lastFindTime = Utils.getStartTime(durationParser, time);
+        } catch (InvalidDurationException e) {
+            return null;
+        }
+
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds;
+        try {
+            issueIds = createQuery(new Timestamp(lastFindTime), group).execute(budget);
+        } catch (DataAccessException e) {
+            log.error("GroupCommentedIssuesJqlFunction::getValues - DataAccessException", e);
+            return null;
+        } catch (SQLException e) {
+            log.error("GroupCommentedIssuesJqlFunction::getValues - SQLException", e);
+            return null;
+        } finally {
+            budget.finish();
+        }
+
+        IssueManager issueManager = ComponentManager.getInstance().getIssueManager();
+        IssueIdSet visible = issueIds.retainBrowsable(issueManager, permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
+    }
+}
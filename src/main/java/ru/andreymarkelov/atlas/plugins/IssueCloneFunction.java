@@ -5,6 +5,7 @@
 package ru.andreymarkelov.atlas.plugins;
 
 import java.io.File;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -33,7 +34,6 @@ import com.atlassian.jira.issue.attachment.Attachment;
 import com.atlassian.jira.issue.fields.CustomField;
 import com.atlassian.jira.issue.index.IndexException;
 import com.atlassian.jira.issue.index.IssueIndexManager;
-import com.atlassian.jira.issue.link.IssueLink;
 import com.atlassian.jira.issue.link.IssueLinkManager;
 import com.atlassian.jira.issue.link.IssueLinkType;
 import com.atlassian.jira.issue.link.IssueLinkTypeManager;
@@ -55,6 +55,7 @@ import com.opensymphony.util.TextUtils;
 import com.opensymphony.workflow.InvalidInputException;
 import com.opensymphony.workflow.WorkflowContext;
 import com.opensymphony.workflow.WorkflowException;
+import ru.andreymarkelov.atlas.plugins.utils.IssueLinkSnapshots;
 
 /**
  * Issue close post function.
@@ -78,6 +79,9 @@ public class IssueCloneFunction
     private String cloneIssueLinkTypeName;
     private final ProjectManager projectManager;
     private final IssueIndexManager indexManager;
+    private final IssueLinkSnapshots linkSnapshots;
+
+    private final PluginMetrics.Timer timer;
 
     /**
      * Constructor.
@@ -92,7 +96,9 @@ public class IssueCloneFunction
         AttachmentManager attachmentManager,
         IssueManager issueManager,
         ProjectManager projectManager,
-        IssueIndexManager indexManager)
+        IssueIndexManager indexManager,
+        IssueLinkSnapshots linkSnapshots,
+        PluginMetrics pluginMetrics)
     {
         this.applicationProperties = applicationProperties;
         this.permissionManager = permissionManager;
@@ -103,6 +109,8 @@ public class IssueCloneFunction
         this.issueManager = issueManager;
         this.projectManager = projectManager;
         this.indexManager = indexManager;
+        this.linkSnapshots = linkSnapshots;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.POST_FUNCTION, "IssueCloneFunction");
     }
 
     /**
@@ -142,7 +150,7 @@ public class IssueCloneFunction
     }
 
     /**
-     * Clone issue links.
+     * Clone issue links. Links are read from the link snapshot of the original issue.
      */
     private void cloneIssueLinks(
         Issue originalIssue,
@@ -153,36 +161,35 @@ public class IssueCloneFunction
     {
         if (issueLinkManager.isLinkingEnabled())
         {
-            Collection<IssueLink> inwardLinks = issueLinkManager.getInwardLinks(originalIssue.getId());
-            for (final IssueLink issueLink : inwardLinks)
+            IssueLinkSnapshots.Snapshot links;
+            try
             {
-                if (copyLink(issueLink))
-                {
-                    Long sourceIssueId = issueLink.getSourceId();
-                    if (originalIssueIdSet.contains(sourceIssueId))
-                    {
-                        sourceIssueId = newIssueIdMap.get(sourceIssueId);
-                    }
-                    if (sourceIssueId != null)
-                    {
-                        issueLinkManager.createIssueLink(sourceIssueId, clone.getId(), issueLink.getIssueLinkType().getId(), null, user);
-                    }
-                }
+                links = linkSnapshots.get(originalIssue.getId());
+            }
+            catch (SQLException e)
+            {
+                throw new CreateException("Cannot read links of " + originalIssue.getKey(), e);
             }
 
-            Collection<IssueLink> outwardLinks = issueLinkManager.getOutwardLinks(originalIssue.getId());
-            for (final IssueLink issueLink : outwardLinks)
+            for (int i = 0; i < links.size(); i++)
             {
-                if (copyLink(issueLink))
+                if (copyLink(links.getLinkTypeId(i)))
                 {
-                    Long destinationId = issueLink.getDestinationId();
-                    if (originalIssueIdSet.contains(destinationId))
+                    Long peerId = links.getPeerId(i);
+                    if (originalIssueIdSet.contains(peerId))
                     {
-                        destinationId = newIssueIdMap.get(destinationId);
+                        peerId = newIssueIdMap.get(peerId);
                     }
-                    if (destinationId != null)
+                    if (peerId != null)
                     {
-                        issueLinkManager.createIssueLink(clone.getId(), destinationId, issueLink.getIssueLinkType().getId(), null, user);
+                        if (links.isInward(i))
+                        {
+                            issueLinkManager.createIssueLink(peerId, clone.getId(), links.getLinkTypeId(i), null, user);
+                        }
+                        else
+                        {
+                            issueLinkManager.createIssueLink(clone.getId(), peerId, links.getLinkTypeId(i), null, user);
+                        }
                     }
                 }
             }
@@ -223,10 +230,11 @@ public class IssueCloneFunction
      * Check copy link.
      */
     private boolean copyLink(
-        IssueLink issueLink)
+        long linkTypeId)
     {
-        return !issueLink.isSystemLink() &&
-               (getCloneIssueLinkType() == null || !getCloneIssueLinkType().getId().equals(issueLink.getIssueLinkType().getId()));
+        IssueLinkType linkType = issueLinkTypeManager.getIssueLinkType(linkTypeId);
+        return linkType != null && !linkType.isSystemLinkType() &&
+               (getCloneIssueLinkType() == null || !getCloneIssueLinkType().getId().equals(linkTypeId));
     }
 
     protected void copySystemFieldValues(
@@ -292,6 +300,23 @@ public class IssueCloneFunction
         Map args,
         PropertySet ps)
     throws WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doExecute(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doExecute(
+        Map transientVars,
+        Map args,
+        PropertySet ps)
+    throws WorkflowException
     {
         String cloneCountStr = (String) args.get(Consts.ISSUE_CLONE_COUNT);
         String cloneWithAttchmentsStr = (String) args.get(Consts.ISSUE_CLONE_ATTACHMENTS);
@@ -4,11 +4,8 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import com.atlassian.jira.ComponentManager;
 import com.atlassian.jira.issue.issuetype.IssueType;
 import com.atlassian.jira.plugin.workflow.AbstractWorkflowPluginFactory;
@@ -16,6 +13,7 @@ import com.atlassian.jira.plugin.workflow.WorkflowPluginFunctionFactory;
 import com.atlassian.jira.project.Project;
 import com.opensymphony.workflow.loader.AbstractDescriptor;
 import com.opensymphony.workflow.loader.FunctionDescriptor;
+import ru.andreymarkelov.atlas.plugins.utils.WorkflowCatalog;
 
 /**
  * Issue Clone Function Factory.
@@ -26,6 +24,20 @@ public class IssueCloneFunctionFactory
     extends AbstractWorkflowPluginFactory
     implements WorkflowPluginFunctionFactory
 {
+    /**
+     * Workflow catalog.
+     */
+    private final WorkflowCatalog catalog;
+
+    /**
+     * Constructor.
+     */
+    public IssueCloneFunctionFactory(
+        WorkflowCatalog catalog)
+    {
+        this.catalog = catalog;
+    }
+
     @Override
     public Map<String, ?> getDescriptorParams(
         Map<String, Object> functionParams)
@@ -115,25 +127,6 @@ public class IssueCloneFunctionFactory
         return map;
     }
 
-    /**
-     * Get all issue types.
-     */
-    private Map<String, String> getIssueTypes()
-    {
-        Map<String, String> projs = new TreeMap<String, String>();
-
-        Collection<IssueType> its = ComponentManager.getInstance().getConstantsManager().getAllIssueTypeObjects();
-        if (its != null)
-        {
-            for (IssueType it : its)
-            {
-                projs.put(it.getId(), it.getName());
-            }
-        }
-
-        return projs;
-    }
-
     /**
      * Get parameter.
      */
@@ -159,25 +152,6 @@ public class IssueCloneFunctionFactory
         }
     }
 
-    /**
-     * Get all projects.
-     */
-    private Map<Long, String> getProjects()
-    {
-        Map<Long, String> projs = new TreeMap<Long, String>();
-
-        List<Project> projObjs = ComponentManager.getInstance().getProjectManager().getProjectObjects();
-        if (projObjs != null)
-        {
-            for (Project projObj : projObjs)
-            {
-                projs.put(projObj.getId(), projObj.getName());
-            }
-        }
-
-        return projs;
-    }
-
     @Override
     protected void getVelocityParamsForEdit(
         Map<String, Object> velocityParams,
@@ -190,8 +164,8 @@ public class IssueCloneFunctionFactory
         velocityParams.put(Consts.ISSUE_TYPE, getParam(descriptor, Consts.ISSUE_TYPE));
         velocityParams.put(Consts.CLONE_PREFIX, getParam(descriptor, Consts.CLONE_PREFIX));
         velocityParams.put(Consts.CLONE_ASSIGNEE, getParam(descriptor, Consts.CLONE_ASSIGNEE));
-        velocityParams.put("its", getIssueTypes());
-        velocityParams.put("allProjects", getProjects());
+        velocityParams.put("its", catalog.get(WorkflowCatalog.ISSUE_TYPES));
+        velocityParams.put("projName", catalog.getName(WorkflowCatalog.PROJECT_IDS, getParam(descriptor, Consts.ISSUE_PROJECT)));
     }
 
     @Override
@@ -205,8 +179,7 @@ public class IssueCloneFunctionFactory
         velocityParams.put(Consts.ISSUE_TYPE, "");
         velocityParams.put(Consts.CLONE_PREFIX, "");
         velocityParams.put(Consts.CLONE_ASSIGNEE, "");
-        velocityParams.put("its", getIssueTypes());
-        velocityParams.put("allProjects", getProjects());
+        velocityParams.put("its", catalog.get(WorkflowCatalog.ISSUE_TYPES));
     }
 
     @Override
@@ -0,0 +1,69 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * SQL query of a JQL function which selects issue ids in the first column. The query needs only
+ * a JDBC connection, so query strategies can be run and compared against any copy of the Jira tables.
+ */
+public class IssueIdQuery {
+    private final String sql;
+    private final Object[] params;
+
+    public IssueIdQuery(String sql, Object... params) {
+        this.sql = sql;
+        this.params = params;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Runs the query on the Jira database.
+     */
+    public IssueIdSet execute(JqlFunctionLimits.Budget budget) throws SQLException {
+        Connection conn = new DefaultOfBizConnectionFactory().getConnection();
+        try {
+            return execute(conn, budget);
+        } finally {
+            Utils.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Runs the query on the connection. The connection is left open. If the time limit of the budget
+     * expires, the ids read so far are returned.
+     */
+    public IssueIdSet execute(Connection conn, JqlFunctionLimits.Budget budget) throws SQLException {
+        IssueIdSet issueIds = new IssueIdSet();
+
+        PreparedStatement pStmt = null;
+        ResultSet rs = null;
+        try {
+            pStmt = conn.prepareStatement(sql);
+            budget.prepare(pStmt);
+            for (int i = 0; i < params.length; i++)
+                pStmt.setObject(i + 1, params[i]);
+
+            rs = pStmt.executeQuery();
+            while (rs.next() && budget.take())
+                issueIds.add(rs.getLong(1));
+            budget.phase(JqlFunctionLimits.PHASE_SQL);
+        } catch (SQLException e) {
+            //--> the query timeout of the budget fired, the ids read so far are the result
+            if (!budget.timedOut(e))
+                throw e;
+            budget.phase(JqlFunctionLimits.PHASE_SQL);
+        } finally {
+            Utils.closeResultSet(rs);
+            Utils.closeStaement(pStmt);
+        }
+        return issueIds;
+    }
+}
@@ -0,0 +1,107 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.jql.operand.QueryLiteral;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.query.operand.Operand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Result collector of the JQL functions. Issue ids are kept as primitives and are sorted and
+ * deduplicated only once, before they are read. Query literals are created at the very end.
+ */
+public class IssueIdSet {
+    private long[] ids;
+    private int size;
+    private boolean compact = true;
+
+    public IssueIdSet() {
+        this(64);
+    }
+
+    public IssueIdSet(int capacity) {
+        this.ids = new long[Math.max(capacity, 8)];
+    }
+
+    public void add(long id) {
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, size << 1);
+        if (size > 0 && ids[size - 1] >= id)
+            compact = false;
+        ids[size++] = id;
+    }
+
+    public boolean contains(long id) {
+        compact();
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    public int size() {
+        compact();
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns sorted distinct ids.
+     */
+    public long[] toArray() {
+        compact();
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Keeps only the first <code>count</code> ids.
+     */
+    public void truncate(int count) {
+        compact();
+        if (count < size)
+            size = Math.max(count, 0);
+    }
+
+    /**
+     * Removes ids of issues that do not exist or cannot be browsed by the user.
+     */
+    public IssueIdSet retainBrowsable(IssueManager issueManager, PermissionManager permissionManager, User user) {
+        compact();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Issue issue = issueManager.getIssueObject(ids[i]);
+            if (issue != null && permissionManager.hasPermission(Permissions.BROWSE, issue, user))
+                ids[kept++] = ids[i];
+        }
+        size = kept;
+        return this;
+    }
+
+    public List<QueryLiteral> toLiterals(Operand operand) {
+        compact();
+        List<QueryLiteral> literals = new ArrayList<QueryLiteral>(size);
+        for (int i = 0; i < size; i++)
+            literals.add(new QueryLiteral(operand, ids[i]));
+        return literals;
+    }
+
+    private void compact() {
+        if (compact)
+            return;
+
+        Arrays.sort(ids, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || ids[distinct - 1] != ids[i])
+                ids[distinct++] = ids[i];
+        }
+        size = distinct;
+        compact = true;
+    }
+}
@@ -0,0 +1,75 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.jql.builder.JqlQueryBuilder;
+import com.atlassian.query.Query;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Queries of validators and conditions built by {@link JqlQueryBuilder} from their values, so no JQL
+ * is formatted or parsed and values need no quoting. Queries are immutable and cached by the values.
+ */
+public final class IssueQueries {
+    private static final int MAX_CACHED = 1000;
+
+    /**
+     * Maximum number of values in a single <code>in</code> clause.
+     */
+    public static final int MAX_IN_VALUES = 1000;
+
+    private static final ConcurrentMap<String, Query> cache = new ConcurrentHashMap<String, Query>();
+
+    private IssueQueries() {
+    }
+
+    /**
+     * Returns <code>project = projectId and issuetype = issueTypeId and status = statusId</code>.
+     */
+    public static Query byProjectTypeAndStatus(Long projectId, Long issueTypeId, Long statusId) {
+        String key = "pts:" + projectId + ':' + issueTypeId + ':' + statusId;
+        Query query = cache.get(key);
+        if (query == null) {
+            query = JqlQueryBuilder.newBuilder().where()
+                .project(projectId)
+                .and().addNumberCondition("issuetype", issueTypeId)
+                .and().addNumberCondition("status", statusId)
+                .buildQuery();
+            put(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * Returns <code>assignee = currentUser() and status = "status"</code>. The user is resolved by the search.
+     */
+    public static Query assignedToCurrentUserInStatus(String status) {
+        String key = "as:" + status;
+        Query query = cache.get(key);
+        if (query == null) {
+            query = JqlQueryBuilder.newBuilder().where()
+                .assigneeIsCurrentUser()
+                .and().status(status)
+                .buildQuery();
+            put(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * Returns <code>parent in (...)</code> of the ids from <code>from</code> inclusive to <code>to</code> exclusive.
+     * These queries are not cached.
+     */
+    public static Query subtasksOf(long[] parentIds, int from, int to) {
+        Long[] values = new Long[to - from];
+        for (int i = from; i < to; i++)
+            values[i - from] = parentIds[i];
+        return JqlQueryBuilder.newBuilder().where().addNumberCondition("parent", values).buildQuery();
+    }
+
+    private static void put(String key, Query query) {
+        if (cache.size() >= MAX_CACHED)
+            cache.clear();
+        cache.put(key, query);
+    }
+}
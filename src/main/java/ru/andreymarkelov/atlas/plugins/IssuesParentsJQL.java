@@ -1,6 +1,5 @@
 package ru.andreymarkelov.atlas.plugins;
 
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -9,20 +8,17 @@ import org.apache.commons.logging.LogFactory;
 import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.JiraDataType;
 import com.atlassian.jira.JiraDataTypes;
-import com.atlassian.jira.bc.issue.search.SearchService;
 import com.atlassian.jira.component.ComponentAccessor;
-import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.index.DocumentConstants;
 import com.atlassian.jira.issue.search.SearchException;
-import com.atlassian.jira.issue.search.SearchResults;
 import com.atlassian.jira.jql.operand.QueryLiteral;
 import com.atlassian.jira.jql.query.QueryCreationContext;
 import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
 import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.util.MessageSet;
 import com.atlassian.jira.util.MessageSetImpl;
 import com.atlassian.jira.util.NotNull;
-import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
 import com.atlassian.query.clause.TerminalClause;
 import com.atlassian.query.operand.FunctionOperand;
 
@@ -38,15 +34,22 @@ public class IssuesParentsJQL extends AbstractJqlFunction {
     private final PermissionManager permissionManager;
 
     /**
-     * Search service.
+     * Search facade.
      */
-    private final SearchService searchService;
+    private final SearchFacade searchFacade;
+
+    /**
+     * Limits of JQL functions.
+     */
+    private final JqlFunctionLimits jqlFunctionLimits;
 
     public IssuesParentsJQL(
             PermissionManager permissionManager,
-            SearchService searchService) {
+            SearchFacade searchFacade,
+            JqlFunctionLimits jqlFunctionLimits) {
         this.permissionManager = permissionManager;
-        this.searchService = searchService;
+        this.searchFacade = searchFacade;
+        this.jqlFunctionLimits = jqlFunctionLimits;
     }
 
     @Override
@@ -66,27 +69,31 @@ public class IssuesParentsJQL extends AbstractJqlFunction {
             @NotNull QueryCreationContext context,
             @NotNull FunctionOperand operand,
             @NotNull TerminalClause terminalClause) {
-        List<QueryLiteral> literals = new LinkedList<QueryLiteral>();
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds = new IssueIdSet();
 
-        SearchService.ParseResult parseResult = searchService.parseQuery(context.getUser(), operand.getArgs().get(0));
-        if (parseResult.isValid()) {
-            SearchResults results;
+        Query query = searchFacade.parse(context.getUser(), operand.getArgs().get(0));
+        if (query != null) {
+            int found;
             try {
-                results = searchService.search(context.getUser(), parseResult.getQuery(), PagerFilter.getUnlimitedFilter());
+                found = searchFacade.collect(context.getUser(), query, DocumentConstants.ISSUE_PARENTTASK, budget.getResultLimit(), issueIds);
+                budget.phase(JqlFunctionLimits.PHASE_SEARCH);
             } catch (SearchException e) {
                 log.error("IssuesParentsJQL::getValues - searching error", e);
+                budget.finish();
                 return null;
             }
-            List<Issue> issues = results.getIssues();
-            for (Issue i : issues) {
-                Issue parent = i.getParentObject();
-                if (parent != null && permissionManager.hasPermission(Permissions.BROWSE, parent, context.getUser())) {
-                    literals.add(new QueryLiteral(operand, parent.getId()));
-                }
+            if (found > budget.getResultLimit()) {
+                budget.resultLimitHit();
             }
         }
 
-        return literals;
+        budget.limit(issueIds);
+        budget.finish();
+
+        IssueIdSet visible = issueIds.retainBrowsable(ComponentAccessor.getIssueManager(), permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
     }
 
     @Override
@@ -101,12 +108,13 @@ public class IssuesParentsJQL extends AbstractJqlFunction {
         if (keys.size() != 1) {
             messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.jql.issuessubtasks.nooneparam"));
         } else {
-            SearchService.ParseResult parseResult = searchService.parseQuery(searcher, keys.get(0));
-            if (!parseResult.isValid()) {
+            if (searchFacade.parse(searcher, keys.get(0)) == null) {
                 messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.jql.issuessubtasks.invalidjql"));
             }
         }
 
+        jqlFunctionLimits.addWarnings(messages, operand);
+
         return messages;
     }
 }
\ No newline at end of file
@@ -1,7 +1,5 @@
 package ru.andreymarkelov.atlas.plugins;
 
-import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -10,20 +8,17 @@ import org.apache.commons.logging.LogFactory;
 import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.JiraDataType;
 import com.atlassian.jira.JiraDataTypes;
-import com.atlassian.jira.bc.issue.search.SearchService;
 import com.atlassian.jira.component.ComponentAccessor;
-import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.index.DocumentConstants;
 import com.atlassian.jira.issue.search.SearchException;
-import com.atlassian.jira.issue.search.SearchResults;
 import com.atlassian.jira.jql.operand.QueryLiteral;
 import com.atlassian.jira.jql.query.QueryCreationContext;
 import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
 import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.util.MessageSet;
 import com.atlassian.jira.util.MessageSetImpl;
 import com.atlassian.jira.util.NotNull;
-import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
 import com.atlassian.query.clause.TerminalClause;
 import com.atlassian.query.operand.FunctionOperand;
 
@@ -39,15 +34,22 @@ public class IssuesSubtasksJQL extends AbstractJqlFunction {
     private final PermissionManager permissionManager;
 
     /**
-     * Search service.
+     * Search facade.
      */
-    private final SearchService searchService;
+    private final SearchFacade searchFacade;
+
+    /**
+     * Limits of JQL functions.
+     */
+    private final JqlFunctionLimits jqlFunctionLimits;
 
     public IssuesSubtasksJQL(
             PermissionManager permissionManager,
-            SearchService searchService) {
+            SearchFacade searchFacade,
+            JqlFunctionLimits jqlFunctionLimits) {
         this.permissionManager = permissionManager;
-        this.searchService = searchService;
+        this.searchFacade = searchFacade;
+        this.jqlFunctionLimits = jqlFunctionLimits;
     }
 
     @Override
@@ -67,29 +69,41 @@ public class IssuesSubtasksJQL extends AbstractJqlFunction {
             @NotNull QueryCreationContext context,
             @NotNull FunctionOperand operand,
             @NotNull TerminalClause terminalClause) {
-        List<QueryLiteral> literals = new LinkedList<QueryLiteral>();
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds = new IssueIdSet();
 
-        SearchService.ParseResult parseResult = searchService.parseQuery(context.getUser(), operand.getArgs().get(0));
-        if (parseResult.isValid()) {
-            SearchResults results;
+        Query query = searchFacade.parse(context.getUser(), operand.getArgs().get(0));
+        if (query != null) {
+            int limit = budget.getResultLimit();
             try {
-                results = searchService.search(context.getUser(), parseResult.getQuery(), PagerFilter.getUnlimitedFilter());
+                IssueIdSet parentIds = new IssueIdSet();
+                if (searchFacade.collect(context.getUser(), query, DocumentConstants.ISSUE_ID, limit, parentIds) > limit) {
+                    budget.resultLimitHit();
+                }
+                long[] ids = parentIds.toArray();
+                for (int from = 0; from < ids.length; from += IssueQueries.MAX_IN_VALUES) {
+                    int to = Math.min(from + IssueQueries.MAX_IN_VALUES, ids.length);
+                    //--> a subtask has a single parent, so chunks never collect the same issue
+                    int left = limit - issueIds.size();
+                    if (searchFacade.collect(context.getUser(), IssueQueries.subtasksOf(ids, from, to), DocumentConstants.ISSUE_ID, left, issueIds) > left) {
+                        budget.resultLimitHit();
+                        break;
+                    }
+                }
+                budget.phase(JqlFunctionLimits.PHASE_SEARCH);
             } catch (SearchException e) {
                 log.error("IssuesSubtasksJQL::getValues - searching error", e);
+                budget.finish();
                 return null;
             }
-            List<Issue> issues = results.getIssues();
-            for (Issue i : issues) {
-                Collection<Issue> subTasks = i.getSubTaskObjects();
-                for (Issue subTask : subTasks) {
-                    if (subTask != null && permissionManager.hasPermission(Permissions.BROWSE, subTask, context.getUser())) {
-                        literals.add(new QueryLiteral(operand, subTask.getId()));
-                    }
-                }
-            }
         }
 
-        return literals;
+        budget.limit(issueIds);
+        budget.finish();
+
+        IssueIdSet visible = issueIds.retainBrowsable(ComponentAccessor.getIssueManager(), permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
     }
 
     @Override
@@ -104,12 +118,13 @@ public class IssuesSubtasksJQL extends AbstractJqlFunction {
         if (keys.size() != 1) {
             messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.jql.issuessubtasks.nooneparam"));
         } else {
-            SearchService.ParseResult parseResult = searchService.parseQuery(searcher, keys.get(0));
-            if (!parseResult.isValid()) {
+            if (searchFacade.parse(searcher, keys.get(0)) == null) {
                 messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.jql.issuessubtasks.invalidjql"));
             }
         }
 
+        jqlFunctionLimits.addWarnings(messages, operand);
+
         return messages;
     }
 }
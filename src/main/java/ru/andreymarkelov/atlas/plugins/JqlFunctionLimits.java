@@ -0,0 +1,285 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.util.MessageSet;
+import com.atlassian.query.operand.FunctionOperand;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Result size and time limits of the plugin JQL functions. Every evaluation takes a {@link Budget}
+ * which stops reading results when a limit is hit. Hits are counted per function and the truncated
+ * clause is reported as a warning when the query is validated again. Slow evaluations are logged
+ * with the times of their phases.
+ */
+public class JqlFunctionLimits {
+    private static final Log log = LogFactory.getLog(JqlFunctionLimits.class);
+
+    public static final long DEFAULT_RESULT_LIMIT = 20000;
+    public static final long DEFAULT_TIME_LIMIT = 30000;
+
+    public static final String PHASE_SQL = "sql";
+    public static final String PHASE_SEARCH = "search";
+    public static final String PHASE_EVALUATION = "evaluation";
+    public static final String PHASE_PERMISSIONS = "permissions";
+
+    private static final String DEFAULTS = "*";
+    private static final int MAX_TRUNCATED_CLAUSES = 1000;
+
+    private final UtilsSettings settings;
+    private final PluginMetrics pluginMetrics;
+    private final SlowOperationLog slowOperationLog;
+    private final ConcurrentMap<String, long[]> limits = new ConcurrentHashMap<String, long[]>();
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+    private final ConcurrentMap<String, String[]> truncatedClauses = new ConcurrentHashMap<String, String[]>();
+
+    public JqlFunctionLimits(UtilsSettings settings, PluginMetrics pluginMetrics, SlowOperationLog slowOperationLog) {
+        this.settings = settings;
+        this.pluginMetrics = pluginMetrics;
+        this.slowOperationLog = slowOperationLog;
+    }
+
+    /**
+     * Starts evaluation of the function.
+     */
+    public Budget start(String function, FunctionOperand operand) {
+        long[] functionLimits = getLimits(function);
+        return new Budget(function, operand.getDisplayString(), functionLimits[0], functionLimits[1]);
+    }
+
+    /**
+     * Adds a warning if the last evaluation of the clause was truncated.
+     */
+    public void addWarnings(MessageSet messages, FunctionOperand operand) {
+        String[] truncated = truncatedClauses.get(operand.getDisplayString());
+        if (truncated != null) {
+            long[] functionLimits = getLimits(truncated[0]);
+            messages.addWarningMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText(
+                truncated[1], operand.getName(), String.valueOf(functionLimits[0]), String.valueOf(functionLimits[1] / 1000)));
+        }
+    }
+
+    /**
+     * Returns the result limit and the time limit (ms) of the function. Zero means no limit.
+     */
+    public long[] getLimits(String function) {
+        String name = function != null ? function : DEFAULTS;
+        long[] functionLimits = limits.get(name);
+        if (functionLimits == null) {
+            String prefix = "jql." + name;
+            long defaultResultLimit = settings.getLong("jql." + DEFAULTS + ".results", DEFAULT_RESULT_LIMIT);
+            long defaultTimeLimit = settings.getLong("jql." + DEFAULTS + ".time", DEFAULT_TIME_LIMIT);
+            functionLimits = new long[] {
+                settings.getLong(prefix + ".results", defaultResultLimit),
+                settings.getLong(prefix + ".time", defaultTimeLimit)
+            };
+            limits.put(name, functionLimits);
+        }
+        return functionLimits;
+    }
+
+    /**
+     * Stores limits of the function. <code>null</code> function stands for the default limits,
+     * <code>null</code> values remove overrides of the function.
+     */
+    public void setLimits(String function, Long resultLimit, Long timeLimit) {
+        String prefix = "jql." + (function != null ? function : DEFAULTS);
+        settings.setLong(prefix + ".results", resultLimit);
+        settings.setLong(prefix + ".time", timeLimit);
+        limits.clear();
+    }
+
+    /**
+     * Returns counters of all evaluated functions ordered by name.
+     */
+    public Map<String, Counters> getCounters() {
+        return new TreeMap<String, Counters>(counters);
+    }
+
+    public void resetCounters() {
+        counters.clear();
+        truncatedClauses.clear();
+    }
+
+    private Counters getFunctionCounters(String function) {
+        Counters functionCounters = counters.get(function);
+        if (functionCounters == null) {
+            Counters created = new Counters();
+            functionCounters = counters.putIfAbsent(function, created);
+            if (functionCounters == null)
+                functionCounters = created;
+        }
+        return functionCounters;
+    }
+
+    private void record(Budget budget) {
+        Counters functionCounters = getFunctionCounters(budget.function);
+        functionCounters.calls.incrementAndGet();
+        if (budget.resultLimitHit || budget.timeLimitHit) {
+            if (budget.resultLimitHit)
+                functionCounters.resultLimitHits.incrementAndGet();
+            if (budget.timeLimitHit)
+                functionCounters.timeLimitHits.incrementAndGet();
+            functionCounters.lastHit.set(System.currentTimeMillis());
+
+            if (truncatedClauses.size() >= MAX_TRUNCATED_CLAUSES)
+                truncatedClauses.clear();
+            truncatedClauses.put(budget.clause, new String[] {budget.function, budget.timeLimitHit ? "utils.jql.limit.time" : "utils.jql.limit.results"});
+        } else {
+            truncatedClauses.remove(budget.clause);
+        }
+    }
+
+    /**
+     * Limit counters of a function.
+     */
+    public static class Counters {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong resultLimitHits = new AtomicLong();
+        private final AtomicLong timeLimitHits = new AtomicLong();
+        private final AtomicLong lastHit = new AtomicLong();
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getResultLimitHits() {
+            return resultLimitHits.get();
+        }
+
+        public long getTimeLimitHits() {
+            return timeLimitHits.get();
+        }
+
+        public long getLastHit() {
+            return lastHit.get();
+        }
+    }
+
+    /**
+     * Limits of a single function evaluation.
+     */
+    public class Budget {
+        private final String function;
+        private final String clause;
+        private final int resultLimit;
+        private final long deadline;
+        private final long start = System.nanoTime();
+        private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        private long phaseStart = start;
+        private int rows;
+        private boolean resultLimitHit;
+        private boolean timeLimitHit;
+
+        private Budget(String function, String clause, long resultLimit, long timeLimit) {
+            this.function = function;
+            this.clause = clause;
+            this.resultLimit = resultLimit > 0 && resultLimit < Integer.MAX_VALUE ? (int) resultLimit : Integer.MAX_VALUE - 1;
+            this.deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+        }
+
+        public int getResultLimit() {
+            return resultLimit;
+        }
+
+        /**
+         * Limits rows and execution time of the statement. If the driver does not support query timeouts
+         * the statement runs without one and reading stops at the deadline.
+         */
+        public void prepare(Statement stmt) throws SQLException {
+            if (resultLimit < Integer.MAX_VALUE - 1)
+                stmt.setMaxRows(resultLimit + 1);
+            if (deadline < Long.MAX_VALUE) {
+                try {
+                    stmt.setQueryTimeout((int) Math.max(1, (deadline - System.currentTimeMillis() + 999) / 1000));
+                } catch (SQLException e) {
+                    log.warn("JqlFunctionLimits::prepare - Cannot set query timeout of " + function, e);
+                }
+            }
+        }
+
+        /**
+         * Accounts a result row. Returns <code>false</code> if a limit is hit and reading must stop.
+         */
+        public boolean take() {
+            if (++rows > resultLimit) {
+                resultLimitHit = true;
+                return false;
+            }
+            if ((rows & 0xFF) == 0 && System.currentTimeMillis() > deadline) {
+                timeLimitHit = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether the statement failed because the query timeout of the budget fired
+         * and counts the time limit as hit if so.
+         */
+        public boolean timedOut(SQLException e) {
+            if (deadline == Long.MAX_VALUE)
+                return false;
+            if (e instanceof SQLTimeoutException || System.currentTimeMillis() >= deadline) {
+                timeLimitHit = true;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Cuts the collected ids to the result limit.
+         */
+        public IssueIdSet limit(IssueIdSet issueIds) {
+            if (issueIds.size() > resultLimit) {
+                resultLimitHit = true;
+                issueIds.truncate(resultLimit);
+            }
+            return issueIds;
+        }
+
+        public void resultLimitHit() {
+            resultLimitHit = true;
+        }
+
+        /**
+         * Ends the phase of the evaluation which started at the end of the previous phase.
+         */
+        public void phase(String name) {
+            long now = System.nanoTime();
+            Long time = phases.get(name);
+            phases.put(name, (time != null ? time : 0) + now - phaseStart);
+            phaseStart = now;
+        }
+
+        /**
+         * Ends reading of the results and counts limit hits. The time limit counts as hit only if reading
+         * stopped before all results were read. The evaluation is timed by {@link #report}.
+         */
+        public void finish() {
+            phase(PHASE_EVALUATION);
+            record(this);
+        }
+
+        /**
+         * Ends the evaluation with the issues visible to the user. Times the whole evaluation
+         * including permission checks and logs it if it is slow.
+         */
+        public void report(User user, IssueIdSet visible) {
+            phase(PHASE_PERMISSIONS);
+            pluginMetrics.getTimer(PluginMetrics.JQL_FUNCTION, function).record(start);
+            slowOperationLog.add(PluginMetrics.JQL_FUNCTION, function, user, clause, visible.size(), phases, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
+import com.atlassian.jira.web.action.JiraWebActionSupport;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Administration page of the JQL function limits.
+ */
+public class JqlFunctionLimitsAction extends JiraWebActionSupport {
+    private final JqlFunctionLimits jqlFunctionLimits;
+    private final PermissionManager permissionManager;
+
+    private String function;
+    private String resultLimit;
+    private String timeLimit;
+    private Long resultLimitValue;
+    private Long timeLimitValue;
+    private boolean saved;
+
+    public JqlFunctionLimitsAction(JqlFunctionLimits jqlFunctionLimits, PermissionManager permissionManager) {
+        this.jqlFunctionLimits = jqlFunctionLimits;
+        this.permissionManager = permissionManager;
+    }
+
+    private boolean hasAdminPermission() {
+        return getLoggedInUser() != null && permissionManager.hasPermission(Permissions.ADMINISTER, getLoggedInUser());
+    }
+
+    private String getFunctionKey() {
+        return Utils.isValidStr(function) ? function.trim() : null;
+    }
+
+    private Long parseLimit(String field, String value) {
+        if (!Utils.isValidStr(value))
+            return null;
+
+        try {
+            long limit = Long.parseLong(value.trim());
+            if (limit >= 0)
+                return limit;
+        } catch (NumberFormatException e) {
+            //--> error below
+        }
+        addError(field, getText("utils.admin.jqllimits.error.number"));
+        return null;
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        long[] limits = jqlFunctionLimits.getLimits(getFunctionKey());
+        resultLimit = String.valueOf(limits[0]);
+        timeLimit = String.valueOf(limits[1] / 1000);
+        return INPUT;
+    }
+
+    @Override
+    protected void doValidation() {
+        resultLimitValue = parseLimit("resultLimit", resultLimit);
+        timeLimitValue = parseLimit("timeLimit", timeLimit);
+    }
+
+    @Override
+    @RequiresXsrfCheck
+    protected String doExecute() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        jqlFunctionLimits.setLimits(getFunctionKey(), resultLimitValue, timeLimitValue != null ? timeLimitValue * 1000 : null);
+        return getRedirect("UtilsJqlFunctionLimits!default.jspa?saved=true");
+    }
+
+    @RequiresXsrfCheck
+    public String doReset() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        jqlFunctionLimits.resetCounters();
+        return getRedirect("UtilsJqlFunctionLimits!default.jspa");
+    }
+
+    public Map<String, JqlFunctionLimits.Counters> getCounters() {
+        return jqlFunctionLimits.getCounters();
+    }
+
+    public long getFunctionResultLimit(String name) {
+        return jqlFunctionLimits.getLimits(name)[0];
+    }
+
+    public long getFunctionTimeLimit(String name) {
+        return jqlFunctionLimits.getLimits(name)[1] / 1000;
+    }
+
+    public String formatTime(long time) {
+        return time > 0 ? getDateTimeFormatter().format(new Date(time)) : "";
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public void setFunction(String function) {
+        this.function = function;
+    }
+
+    public String getResultLimit() {
+        return resultLimit;
+    }
+
+    public void setResultLimit(String resultLimit) {
+        this.resultLimit = resultLimit;
+    }
+
+    public String getTimeLimit() {
+        return timeLimit;
+    }
+
+    public void setTimeLimit(String timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public boolean isSaved() {
+        return saved;
+    }
+
+    public void setSaved(boolean saved) {
+        this.saved = saved;
+    }
+}
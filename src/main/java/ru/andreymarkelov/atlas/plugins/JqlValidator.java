@@ -3,13 +3,10 @@ package ru.andreymarkelov.atlas.plugins;
 import java.util.Map;
 import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.ComponentManager;
-import com.atlassian.jira.bc.issue.search.SearchService;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.search.SearchException;
 import com.atlassian.jira.issue.search.SearchResults;
 import com.atlassian.jira.jql.builder.JqlQueryBuilder;
-import com.atlassian.jira.jql.parser.DefaultJqlQueryParser;
-import com.atlassian.jira.jql.parser.JqlParseException;
 import com.atlassian.jira.web.bean.PagerFilter;
 import com.atlassian.query.Query;
 import com.opensymphony.module.propertyset.PropertySet;
@@ -20,15 +17,19 @@ import com.opensymphony.workflow.WorkflowException;
 public class JqlValidator
     implements Validator
 {
-    private final SearchService searchService;
+    private final SearchFacade searchFacade;
+
+    private final PluginMetrics.Timer timer;
 
     /**
      * Constructor.
      */
     public JqlValidator(
-        SearchService searchService)
+        SearchFacade searchFacade,
+        PluginMetrics pluginMetrics)
     {
-        this.searchService = searchService;
+        this.searchFacade = searchFacade;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.VALIDATOR, "JqlValidator");
     }
 
     @Override
@@ -37,6 +38,23 @@ public class JqlValidator
         Map args,
         PropertySet ps)
     throws InvalidInputException, WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doValidate(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doValidate(
+        Map transientVars,
+        Map args,
+        PropertySet ps)
+    throws InvalidInputException, WorkflowException
     {
         Issue issue = (Issue) transientVars.get("issue");
 
@@ -55,9 +73,13 @@ public class JqlValidator
 
         try
         {
-            Query query = (new DefaultJqlQueryParser()).parseQuery(jql);
+            Query query = searchFacade.parse(user, jql);
+            if (query == null)
+            {
+                return;
+            }
             query = JqlQueryBuilder.newClauseBuilder(query).and().not().issue(issue.getKey()).buildQuery();
-            SearchResults results = searchService.search(user, query, PagerFilter.getUnlimitedFilter());
+            SearchResults results = searchFacade.search(user, query, new PagerFilter(1));
             if (results != null && results.getIssues().size() > 0)
             {
                 for (Issue i : results.getIssues())
@@ -70,10 +92,6 @@ public class JqlValidator
                 }
             }
         }
-        catch (JqlParseException ex)
-        {
-            return;
-        }
         catch (SearchException e)
         {
             return;
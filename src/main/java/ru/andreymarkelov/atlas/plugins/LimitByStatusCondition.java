@@ -1,39 +1,97 @@
 package ru.andreymarkelov.atlas.plugins;
 
 import com.atlassian.crowd.embedded.api.User;
-import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.bc.project.component.ProjectComponent;
+import com.atlassian.jira.config.ConstantsManager;
+import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.search.SearchException;
-import com.atlassian.jira.issue.search.SearchResults;
-import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.jira.issue.status.Status;
+import com.atlassian.jira.security.groups.GroupManager;
 import com.atlassian.jira.workflow.condition.AbstractJiraCondition;
+import com.atlassian.query.Query;
 import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.workflow.WorkflowException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import ru.andreymarkelov.atlas.plugins.utils.RequestMemo;
+import ru.andreymarkelov.atlas.plugins.utils.UserWorkloadCounter;
+import ru.andreymarkelov.atlas.plugins.utils.WipCounter;
 
 import java.util.Map;
 
+/**
+ * Limits the count of issues in the status. Issues of the caller are searched or, in the counter mode,
+ * read from {@link UserWorkloadCounter}, which counts unresolved issues only. Limits of the issue project,
+ * the issue components and a group of assignees are read from {@link WipCounter}.
+ */
 public class LimitByStatusCondition extends AbstractJiraCondition {
-    private static final String ISSUES_BY_STATUS_JQL = "assignee = currentUser() AND status = '%s'";
+    private static final Log log = LogFactory.getLog(LimitByStatusCondition.class);
 
-    private final SearchService searchService;
+    private final SearchFacade searchFacade;
+    private final ConstantsManager constantsManager;
+    private final UserWorkloadCounter userWorkloadCounter;
+    private final WipCounter wipCounter;
+    private final GroupManager groupManager;
+    private final PluginMetrics.Timer timer;
 
-    public LimitByStatusCondition(SearchService searchService) {
-        this.searchService = searchService;
+    public LimitByStatusCondition(
+            SearchFacade searchFacade,
+            ConstantsManager constantsManager,
+            UserWorkloadCounter userWorkloadCounter,
+            WipCounter wipCounter,
+            GroupManager groupManager,
+            PluginMetrics pluginMetrics) {
+        this.searchFacade = searchFacade;
+        this.constantsManager = constantsManager;
+        this.userWorkloadCounter = userWorkloadCounter;
+        this.wipCounter = wipCounter;
+        this.groupManager = groupManager;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.CONDITION, "LimitByStatusCondition");
     }
 
-    protected int getInProgressIssuesCount(User user, String status) {
-        SearchService.ParseResult parseResult = searchService.parseQuery(user, String.format(ISSUES_BY_STATUS_JQL, status));
-        if (parseResult.isValid())
-            try {
-                SearchResults results = searchService.search(user, parseResult.getQuery(), PagerFilter.getUnlimitedFilter());
-                if (results != null)
-                    return results.getTotal();
-            } catch (SearchException ignored) {
-            }
-        return 0;
+    /**
+     * Returns the count of issues of the user in the status. The count is computed once per request
+     * for all transitions of the issue checking the same user and status, and again after any issue
+     * changed in the request.
+     */
+    protected int getInProgressIssuesCount(User user, String status, Issue issue) {
+        String key = RequestMemo.key(LimitByStatusCondition.class, issue != null ? issue.getId() : null, user != null ? user.getName() : null, status);
+        Integer count = (Integer) RequestMemo.get(key);
+        if (count != null)
+            return count;
+
+        Query query = IssueQueries.assignedToCurrentUserInStatus(status);
+        try {
+            count = (int) searchFacade.count(user, query);
+        } catch (SearchException ignored) {
+            return 0;
+        }
+        RequestMemo.put(key, count);
+        return count;
+    }
+
+    /**
+     * Returns the count of unresolved issues of the user in the status kept by the counter
+     * or <code>-1</code> if the counter cannot answer.
+     */
+    protected int getCountedIssues(User user, String status) {
+        if (user == null)
+            return -1;
+        String statusId = getStatusId(status);
+        return statusId != null ? userWorkloadCounter.getOpenIssues(user.getName(), statusId) : -1;
     }
 
     @Override
     public boolean passesCondition(Map transientVars, Map args, PropertySet ps) throws WorkflowException {
+        long start = System.nanoTime();
+        try {
+            return doPassesCondition(transientVars, args, ps);
+        } finally {
+            timer.record(start, args);
+        }
+    }
+
+    private boolean doPassesCondition(Map transientVars, Map args, PropertySet ps) throws WorkflowException {
         String status = (String) args.get(LimitByStatusConditionFactoryImpl.STATUS_KEY);
         if (status == null || "".equals(status))
             return true;
@@ -46,9 +104,66 @@ public class LimitByStatusCondition extends AbstractJiraCondition {
             return true;
         }
 
+        String scope = (String) args.get(LimitByStatusConditionFactoryImpl.SCOPE_KEY);
+        if (scope != null && scope.length() > 0 && !LimitByStatusConditionFactoryImpl.SCOPE_USER.equals(scope))
+            return passesScopeLimit(scope, (Issue) transientVars.get("issue"), (String) args.get(LimitByStatusConditionFactoryImpl.GROUP_KEY), status, limit);
+
         User user = getCaller(transientVars, args);
-        int issuesCount = getInProgressIssuesCount(user, status);
+        int issuesCount = -1;
+        if (Boolean.parseBoolean((String) args.get(LimitByStatusConditionFactoryImpl.COUNTER_KEY)))
+            issuesCount = getCountedIssues(user, status);
+        if (issuesCount < 0)
+            issuesCount = getInProgressIssuesCount(user, status, (Issue) transientVars.get("issue"));
 
         return issuesCount < limit;
     }
+
+    /**
+     * Checks the limit of the project or the components of the issue or of the group members.
+     * Passes with a warning if the count is not known.
+     */
+    private boolean passesScopeLimit(String scope, Issue issue, String group, String status, int limit) {
+        String statusId = getStatusId(status);
+        if (statusId == null) {
+            log.warn("LimitByStatusCondition::passesScopeLimit - Unknown status " + status + ", the limit is not checked");
+            return true;
+        }
+
+        if (LimitByStatusConditionFactoryImpl.SCOPE_PROJECT.equals(scope)) {
+            if (issue == null || issue.getProjectObject() == null)
+                return true;
+            return passesLimit(wipCounter.getProjectCount(statusId, issue.getProjectObject().getId()), limit, scope, status);
+        } else if (LimitByStatusConditionFactoryImpl.SCOPE_COMPONENT.equals(scope)) {
+            if (issue == null || issue.getComponentObjects() == null)
+                return true;
+            for (ProjectComponent component : issue.getComponentObjects()) {
+                if (!passesLimit(wipCounter.getComponentCount(statusId, component.getId()), limit, scope, status))
+                    return false;
+            }
+            return true;
+        } else if (LimitByStatusConditionFactoryImpl.SCOPE_GROUP.equals(scope)) {
+            if (!Utils.isValidStr(group) || groupManager.getGroupObject(group) == null) {
+                log.warn("LimitByStatusCondition::passesScopeLimit - Unknown group " + group + ", the limit is not checked");
+                return true;
+            }
+            return passesLimit(wipCounter.getAssigneesCount(statusId, groupManager.getUserNamesInGroup(group)), limit, scope, status);
+        }
+        return true;
+    }
+
+    private static boolean passesLimit(int count, int limit, String scope, String status) {
+        if (count < 0) {
+            log.warn("LimitByStatusCondition::passesLimit - Issues in status " + status + " cannot be counted by " + scope + ", the limit is not checked");
+            return true;
+        }
+        return count < limit;
+    }
+
+    private String getStatusId(String name) {
+        for (Status status : constantsManager.getStatusObjects()) {
+            if (status.getName().equals(name) || status.getId().equals(name))
+                return status.getId();
+        }
+        return null;
+    }
 }
@@ -11,12 +11,26 @@ import java.util.Map;
 public class LimitByStatusConditionFactoryImpl extends AbstractWorkflowPluginFactory implements WorkflowPluginConditionFactory {
     public static final String STATUS_KEY = "status";
     public static final String LIMIT_KEY = "limit";
+    public static final String COUNTER_KEY = "counter";
+    public static final String SCOPE_KEY = "scope";
+    public static final String GROUP_KEY = "group";
+
+    /**
+     * Issues of the caller are limited. Default for conditions created before scopes.
+     */
+    public static final String SCOPE_USER = "user";
+    public static final String SCOPE_PROJECT = "project";
+    public static final String SCOPE_COMPONENT = "component";
+    public static final String SCOPE_GROUP = "group";
 
     @Override
     public Map<String, ?> getDescriptorParams(Map<String, Object> conditionParams) {
         Map<String, String> result = new HashMap<String, String>();
         result.put(STATUS_KEY, extractSingleParam(conditionParams, STATUS_KEY));
         result.put(LIMIT_KEY, extractSingleParam(conditionParams, LIMIT_KEY));
+        result.put(COUNTER_KEY, Boolean.toString(conditionParams.containsKey(COUNTER_KEY)));
+        result.put(SCOPE_KEY, conditionParams.containsKey(SCOPE_KEY) ? extractSingleParam(conditionParams, SCOPE_KEY) : SCOPE_USER);
+        result.put(GROUP_KEY, conditionParams.containsKey(GROUP_KEY) ? extractSingleParam(conditionParams, GROUP_KEY) : "");
         return result;
     }
 
@@ -30,12 +44,20 @@ public class LimitByStatusConditionFactoryImpl extends AbstractWorkflowPluginFac
         String limit = (String) conditionDescriptor.getArgs().get(LIMIT_KEY);
         velocityParams.put(STATUS_KEY, status != null ? status : "");
         velocityParams.put(LIMIT_KEY, limit != null ? limit : "");
+        velocityParams.put(COUNTER_KEY, Boolean.toString(Boolean.parseBoolean((String) conditionDescriptor.getArgs().get(COUNTER_KEY))));
+        String scope = (String) conditionDescriptor.getArgs().get(SCOPE_KEY);
+        String group = (String) conditionDescriptor.getArgs().get(GROUP_KEY);
+        velocityParams.put(SCOPE_KEY, scope != null && scope.length() > 0 ? scope : SCOPE_USER);
+        velocityParams.put(GROUP_KEY, group != null ? group : "");
     }
 
     @Override
     protected void getVelocityParamsForInput(Map<String, Object> velocityParams) {
         velocityParams.put(STATUS_KEY, "");
         velocityParams.put(LIMIT_KEY, "");
+        velocityParams.put(COUNTER_KEY, "false");
+        velocityParams.put(SCOPE_KEY, SCOPE_USER);
+        velocityParams.put(GROUP_KEY, "");
     }
 
     @Override
@@ -0,0 +1,201 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.issue.Issue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rule of the links validator: the issue must not be linked by the link type, in the direction,
+ * to an issue of the project and the issue type in one of the statuses. Empty project and issue type match any.
+ * A rule is stored as <code>linktype:direction:projkey:issuetype:status,status</code>.
+ */
+public class LinkRule {
+    public enum Direction {
+        INWARD, OUTWARD, BOTH
+    }
+
+    /**
+     * Argument of the rules.
+     */
+    public static final String RULES = "rules";
+
+    private static final int MAX_CACHED = 1000;
+    private static final ConcurrentMap<String, Rules> cache = new ConcurrentHashMap<String, Rules>();
+
+    private final Long linkTypeId;
+    private final Direction direction;
+    private final String projectKey;
+    private final String issueTypeId;
+    private final Set<String> statusIds;
+
+    public LinkRule(Long linkTypeId, Direction direction, String projectKey, String issueTypeId, Set<String> statusIds) {
+        this.linkTypeId = linkTypeId;
+        this.direction = direction;
+        this.projectKey = projectKey != null ? projectKey : "";
+        this.issueTypeId = issueTypeId != null ? issueTypeId : "";
+        this.statusIds = Collections.unmodifiableSet(new LinkedHashSet<String>(statusIds));
+    }
+
+    /**
+     * Returns the rule or <code>null</code> if the string is not a rule.
+     */
+    public static LinkRule parse(String str) {
+        String[] parts = str.split(":", -1);
+        if (parts.length != 5)
+            return null;
+        try {
+            Set<String> statusIds = new LinkedHashSet<String>();
+            for (String statusId : parts[4].split(",")) {
+                if (statusId.length() > 0)
+                    statusIds.add(statusId);
+            }
+            Direction direction = parts[1].length() > 0 ? Direction.valueOf(parts[1]) : Direction.INWARD;
+            return new LinkRule(Long.valueOf(parts[0]), direction, parts[2], parts[3], statusIds);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(linkTypeId).append(':').append(direction.name()).append(':')
+          .append(projectKey).append(':').append(issueTypeId).append(':');
+        boolean first = true;
+        for (String statusId : statusIds) {
+            if (!first)
+                sb.append(',');
+            sb.append(statusId);
+            first = false;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the compiled rules of the stored argument. Results are cached by the argument.
+     */
+    public static Rules compile(String raw) {
+        String key = raw != null ? raw : "";
+        Rules rules = cache.get(key);
+        if (rules == null) {
+            List<LinkRule> list = new ArrayList<LinkRule>();
+            for (String str : ArgumentCodec.decode(key)) {
+                LinkRule rule = parse(str);
+                if (rule != null)
+                    list.add(rule);
+            }
+            rules = new Rules(list);
+            if (cache.size() >= MAX_CACHED)
+                cache.clear();
+            cache.put(key, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * Returns the rules of the validator arguments. Validators created before rules were introduced
+     * keep a single inward rule in the <code>linktype</code>, <code>projkey</code>, <code>issuetype</code>
+     * and <code>status</code> arguments.
+     */
+    public static Rules compile(Map<?, ?> args) {
+        String rules = (String) args.get(RULES);
+        if (rules != null && rules.length() > 0)
+            return compile(rules);
+
+        String linkType = (String) args.get("linktype");
+        if (linkType == null || linkType.length() == 0)
+            return compile("");
+        try {
+            LinkRule legacy = new LinkRule(Long.valueOf(linkType), Direction.INWARD, (String) args.get("projkey"),
+                (String) args.get("issuetype"), ArgumentCodec.decode((String) args.get("status")));
+            return compile(ArgumentCodec.encode(Collections.singletonList(legacy.format())));
+        } catch (NumberFormatException e) {
+            return compile("");
+        }
+    }
+
+    /**
+     * Checks the other issue of a link of the rule type in the given direction.
+     */
+    public boolean matches(boolean inward, Issue other) {
+        if (other == null || other.getStatusObject() == null)
+            return false;
+        return matches(inward,
+            other.getProjectObject() != null ? other.getProjectObject().getKey() : null,
+            other.getIssueTypeObject() != null ? other.getIssueTypeObject().getId() : null,
+            other.getStatusObject().getId());
+    }
+
+    /**
+     * Checks the project key, the issue type and the status of the other issue of a link of the rule type.
+     */
+    public boolean matches(boolean inward, String otherProjectKey, String otherIssueTypeId, String otherStatusId) {
+        if (direction == Direction.INWARD && !inward || direction == Direction.OUTWARD && inward)
+            return false;
+        if (otherStatusId == null || !statusIds.contains(otherStatusId))
+            return false;
+        if (projectKey.length() > 0 && !projectKey.equals(otherProjectKey))
+            return false;
+        return issueTypeId.length() == 0 || issueTypeId.equals(otherIssueTypeId);
+    }
+
+    public Long getLinkTypeId() {
+        return linkTypeId;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public String getIssueTypeId() {
+        return issueTypeId;
+    }
+
+    public Set<String> getStatusIds() {
+        return statusIds;
+    }
+
+    /**
+     * Rules grouped by link type.
+     */
+    public static final class Rules {
+        private final List<LinkRule> all;
+        private final Map<Long, List<LinkRule>> byLinkType = new HashMap<Long, List<LinkRule>>();
+
+        private Rules(List<LinkRule> all) {
+            this.all = Collections.unmodifiableList(all);
+            for (LinkRule rule : all) {
+                List<LinkRule> rules = byLinkType.get(rule.getLinkTypeId());
+                if (rules == null) {
+                    rules = new ArrayList<LinkRule>();
+                    byLinkType.put(rule.getLinkTypeId(), rules);
+                }
+                rules.add(rule);
+            }
+        }
+
+        public List<LinkRule> getAll() {
+            return all;
+        }
+
+        public List<LinkRule> get(Long linkTypeId) {
+            List<LinkRule> rules = byLinkType.get(linkTypeId);
+            return rules != null ? rules : Collections.<LinkRule>emptyList();
+        }
+
+        public boolean isEmpty() {
+            return all.isEmpty();
+        }
+    }
+}
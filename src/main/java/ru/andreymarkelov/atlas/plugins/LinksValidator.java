@@ -4,44 +4,63 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 import com.atlassian.jira.ComponentManager;
 import com.atlassian.jira.issue.Issue;
-import com.atlassian.jira.issue.link.IssueLink;
-import com.atlassian.jira.issue.link.IssueLinkManager;
 import com.atlassian.jira.issue.link.IssueLinkType;
 import com.atlassian.jira.issue.link.IssueLinkTypeManager;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.util.I18nHelper;
 import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.workflow.InvalidInputException;
 import com.opensymphony.workflow.Validator;
 import com.opensymphony.workflow.WorkflowException;
+import ru.andreymarkelov.atlas.plugins.utils.IssueLinkSnapshots;
 
+/**
+ * Links validator. Checks all rules in one pass over inward and outward links
+ * of the link snapshot and reports every violation.
+ */
 public class LinksValidator
     implements Validator
 {
     /**
-     * Link manager.
+     * Link snapshots.
      */
-    private final IssueLinkManager ilMgr;
+    private final IssueLinkSnapshots linkSnapshots;
 
     /**
      * Link type manager.
      */
     private final IssueLinkTypeManager iltMgr;
 
+    /**
+     * Project manager.
+     */
+    private final ProjectManager prMgr;
+
+    /**
+     * Timer of validate calls.
+     */
+    private final PluginMetrics.Timer timer;
+
     /**
      * Constrcutor.
      */
     public LinksValidator(
-        IssueLinkManager ilMgr,
-        IssueLinkTypeManager iltMgr)
+        IssueLinkSnapshots linkSnapshots,
+        IssueLinkTypeManager iltMgr,
+        ProjectManager prMgr,
+        PluginMetrics pluginMetrics)
     {
-        this.ilMgr = ilMgr;
+        this.linkSnapshots = linkSnapshots;
         this.iltMgr = iltMgr;
+        this.prMgr = prMgr;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.VALIDATOR, "LinksValidator");
     }
 
     @Override
@@ -50,37 +69,78 @@ public class LinksValidator
         Map args,
         PropertySet ps)
     throws InvalidInputException, WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doValidate(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doValidate(
+        Map transientVars,
+        Map args,
+        PropertySet ps)
+    throws InvalidInputException, WorkflowException
     {
         Issue issue = (Issue) transientVars.get("issue");
+        if (issue == null || issue.getId() == null)
+        {
+            return;
+        }
 
-        List<String> lsts = new ArrayList<String>();
-        String statuses = (String) args.get("status");
-        StringTokenizer st = new StringTokenizer(statuses, "&");
-        while (st.hasMoreTokens())
+        LinkRule.Rules rules = LinkRule.compile(args);
+        if (rules.isEmpty())
         {
-            lsts.add(st.nextToken());
+            return;
         }
 
-        String projkey = (String) args.get("projkey");
-        String issuetype = (String) args.get("issuetype");
-        String linktype = (String) args.get("linktype");
-        IssueLinkType itl = iltMgr.getIssueLinkType(Long.parseLong(linktype));
+        IssueLinkSnapshots.Snapshot links;
+        try
+        {
+            links = linkSnapshots.get(issue.getId());
+        }
+        catch (SQLException e)
+        {
+            throw new WorkflowException("Cannot read links of " + issue.getKey(), e);
+        }
 
-        Collection<IssueLink> lc = ilMgr.getInwardLinks(issue.getId());
-        for (IssueLink il : lc)
+        List<String> errors = new ArrayList<String>();
+        I18nHelper i18n = ComponentManager.getInstance().getJiraAuthenticationContext().getI18nHelper();
+        for (int i = 0; i < links.size(); i++)
         {
-            if (il.getIssueLinkType().equals(itl))
+            List<LinkRule> typeRules = rules.get(links.getLinkTypeId(i));
+            if (typeRules.isEmpty())
             {
-                Issue destIssue = il.getSourceObject();
-                if (destIssue != null &&
-                    destIssue.getProjectObject().getKey().equals(projkey) &&
-                    destIssue.getIssueTypeObject().getId().equals(issuetype) &&
-                    lsts.contains(destIssue.getStatusObject().getId()))
+                continue;
+            }
+
+            Project project = prMgr.getProjectObj(links.getPeerProjectId(i));
+            String projectKey = (project != null) ? project.getKey() : null;
+            for (LinkRule rule : typeRules)
+            {
+                if (rule.matches(links.isInward(i), projectKey, links.getPeerTypeId(i), links.getPeerStatusId(i)))
                 {
-                    throw new InvalidInputException(
-                        ComponentManager.getInstance().getJiraAuthenticationContext().getI18nHelper().getText("utils.linkerror"));
+                    IssueLinkType linkType = iltMgr.getIssueLinkType(links.getLinkTypeId(i));
+                    String linkName = (linkType == null) ? "" : (links.isInward(i) ? linkType.getInward() : linkType.getOutward());
+                    errors.add(i18n.getText("utils.linkerror.rule", linkName, links.getPeerKey(i)));
+                    break;
                 }
             }
         }
+
+        if (!errors.isEmpty())
+        {
+            InvalidInputException ex = new InvalidInputException(i18n.getText("utils.linkerror"));
+            for (String error : errors)
+            {
+                ex.addError(error);
+            }
+            throw ex;
+        }
     }
 }
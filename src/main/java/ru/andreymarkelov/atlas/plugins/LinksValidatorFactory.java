@@ -5,62 +5,31 @@
 package ru.andreymarkelov.atlas.plugins;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.TreeMap;
-import com.atlassian.jira.config.IssueTypeManager;
-import com.atlassian.jira.config.StatusManager;
-import com.atlassian.jira.issue.issuetype.IssueType;
-import com.atlassian.jira.issue.link.IssueLinkType;
-import com.atlassian.jira.issue.link.IssueLinkTypeManager;
-import com.atlassian.jira.issue.status.Status;
 import com.atlassian.jira.plugin.workflow.AbstractWorkflowPluginFactory;
 import com.atlassian.jira.plugin.workflow.WorkflowPluginValidatorFactory;
-import com.atlassian.jira.project.Project;
-import com.atlassian.jira.project.ProjectManager;
 import com.opensymphony.workflow.loader.AbstractDescriptor;
 import com.opensymphony.workflow.loader.ValidatorDescriptor;
+import ru.andreymarkelov.atlas.plugins.utils.WorkflowCatalog;
 
 public class LinksValidatorFactory
     extends AbstractWorkflowPluginFactory
     implements WorkflowPluginValidatorFactory
 {
     /**
-     * Link type manager.
+     * Workflow catalog.
      */
-    private final IssueLinkTypeManager iltMgr;
-
-    /**
-     * Issue type manager.
-     */
-    private final IssueTypeManager itMgr;
-
-    /**
-     * Project manager.
-     */
-    private final ProjectManager prMgr;
-
-    /**
-     * Status manager.
-     */
-    private final StatusManager stMgr;
+    private final WorkflowCatalog catalog;
 
     /**
      * Constructor.
      */
     public LinksValidatorFactory(
-        ProjectManager prMgr,
-        IssueLinkTypeManager iltMgr,
-        StatusManager stMgr,
-        IssueTypeManager itMgr)
+        WorkflowCatalog catalog)
     {
-        this.prMgr = prMgr;
-        this.iltMgr = iltMgr;
-        this.stMgr = stMgr;
-        this.itMgr = itMgr;
+        this.catalog = catalog;
     }
 
     @Override
@@ -69,54 +38,36 @@ public class LinksValidatorFactory
     {
         Map<String, Object> map = new HashMap<String, Object>();
 
+        List<String> rules = new ArrayList<String>();
         if (conditionParams != null &&
-            conditionParams.containsKey("issuetype") &&
-            conditionParams.containsKey("projkey") &&
-            conditionParams.containsKey("linktype") &&
-            conditionParams.containsKey("status"))
-        {
-            map.put("issuetype", extractSingleParam(conditionParams, "issuetype"));
-            map.put("projkey", extractSingleParam(conditionParams, "projkey"));
-            map.put("linktype", extractSingleParam(conditionParams, "linktype"));
-            String[] statuses = (String[])conditionParams.get("status");
-            StringBuilder sb = new StringBuilder();
-            if (statuses != null)
+            conditionParams.get("ruleLinktype") instanceof String[])
+        {
+            String[] linktypes = (String[]) conditionParams.get("ruleLinktype");
+            String[] directions = (String[]) conditionParams.get("ruleDirection");
+            String[] projkeys = (String[]) conditionParams.get("ruleProjkey");
+            String[] issuetypes = (String[]) conditionParams.get("ruleIssuetype");
+            String[] statuses = (String[]) conditionParams.get("ruleStatus");
+            for (int i = 0; i < linktypes.length; i++)
             {
-                for (String status : statuses)
+                LinkRule rule = LinkRule.parse(linktypes[i] + ":" + getValue(directions, i) + ":" +
+                    getValue(projkeys, i) + ":" + getValue(issuetypes, i) + ":" + getValue(statuses, i));
+                if (rule != null)
                 {
-                    sb.append(status).append("&");
+                    rules.add(rule.format());
                 }
             }
-            map.put("status", sb.toString());
-            return map;
         }
-
-        map.put("issuetype", "");
-        map.put("projkey", "");
-        map.put("linktype", "");
-        map.put("status", "");
+        map.put(LinkRule.RULES, ArgumentCodec.encode(rules));
 
         return map;
     }
 
-    private String getParam(AbstractDescriptor descriptor, String param)
+    /**
+     * Get value of the row.
+     */
+    private String getValue(String[] values, int i)
     {
-        if (!(descriptor instanceof ValidatorDescriptor))
-        {
-            throw new IllegalArgumentException("Descriptor must be a FunctionDescriptor.");
-        }
-
-        ValidatorDescriptor validatorDescriptor = (ValidatorDescriptor) descriptor;
-        String value = (String) validatorDescriptor.getArgs().get(param);
-
-        if (value!=null && value.trim().length() > 0)
-        {
-            return value;
-        }
-        else 
-        {
-            return "";
-        }
+        return (values != null && i < values.length && values[i] != null) ? values[i] : "";
     }
 
     @Override
@@ -124,87 +75,29 @@ public class LinksValidatorFactory
         Map<String, Object> velocityParams,
         AbstractDescriptor descriptor)
     {
-        Map<String, String> prsstr = new TreeMap<String, String>();
-        List<Project> prs = prMgr.getProjectObjects();
-        for (Project pr : prs)
-        {
-            prsstr.put(pr.getKey(), pr.getName());
-        }
-        velocityParams.put("prsstr", prsstr);
+        getVelocityParamsForInput(velocityParams);
 
-        Map<Long, String> tpsstr = new TreeMap<Long, String>();
-        Collection<IssueLinkType> tps = iltMgr.getIssueLinkTypes();
-        for (IssueLinkType tp : tps)
+        List<LinkRule> rules = getRules(descriptor);
+        Map<String, String> projnames = new HashMap<String, String>();
+        for (LinkRule rule : rules)
         {
-            tpsstr.put(tp.getId(), tp.getName());
+            String name = catalog.getName(WorkflowCatalog.PROJECTS, rule.getProjectKey());
+            projnames.put(rule.getProjectKey(), name != null ? name : rule.getProjectKey());
         }
-        velocityParams.put("tpsstr", tpsstr);
-
-        Map<String, String> stsstr = new TreeMap<String, String>();
-        Collection<Status> sts = stMgr.getStatuses();
-        for (Status st : sts)
-        {
-            stsstr.put(st.getId(), st.getName());
-        }
-        velocityParams.put("stsstr", stsstr);
-
-        Map<String, String> itsstr = new TreeMap<String, String>();
-        Collection<IssueType> its = itMgr.getIssueTypes();
-        for (IssueType it : its)
-        {
-            itsstr.put(it.getId(), it.getName());
-        }
-        velocityParams.put("itsstr", itsstr);
-
-        List<String> lsts = new ArrayList<String>();
-        String statuses = getParam(descriptor, "status");
-        StringTokenizer st = new StringTokenizer(statuses, "&");
-        while (st.hasMoreTokens())
-        {
-            lsts.add(st.nextToken());
-        }
-
-        velocityParams.put("projkey", getParam(descriptor, "projkey"));
-        velocityParams.put("issuetype", getParam(descriptor, "issuetype"));
-        velocityParams.put("linktype", getParam(descriptor, "linktype"));
-        velocityParams.put("lsts", lsts);
+        velocityParams.put("rules", rules);
+        velocityParams.put("projnames", projnames);
     }
 
     @Override
     protected void getVelocityParamsForInput(
         Map<String, Object> velocityParams)
     {
-        Map<String, String> prsstr = new TreeMap<String, String>();
-        List<Project> prs = prMgr.getProjectObjects();
-        for (Project pr : prs)
-        {
-            prsstr.put(pr.getKey(), pr.getName());
-        }
-        velocityParams.put("prsstr", prsstr);
-
-        Map<Long, String> tpsstr = new TreeMap<Long, String>();
-        Collection<IssueLinkType> tps = iltMgr.getIssueLinkTypes();
-        for (IssueLinkType tp : tps)
-        {
-            tpsstr.put(tp.getId(), tp.getName());
-        }
-        velocityParams.put("tpsstr", tpsstr);
-
-        Map<String, String> stsstr = new TreeMap<String, String>();
-        Collection<Status> sts = stMgr.getStatuses();
-        for (Status st : sts)
-        {
-            stsstr.put(st.getId(), st.getName());
-        }
-        velocityParams.put("stsstr", stsstr);
-
-        Map<String, String> itsstr = new TreeMap<String, String>();
-        Collection<IssueType> its = itMgr.getIssueTypes();
-        for (IssueType it : its)
-        {
-            itsstr.put(it.getId(), it.getName());
-        }
-        velocityParams.put("itsstr", itsstr);
+        //--> projects are loaded by the page
+        velocityParams.put("rules", new ArrayList<LinkRule>());
+        velocityParams.put("projnames", new HashMap<String, String>());
+        velocityParams.put("tpsstr", catalog.get(WorkflowCatalog.LINK_TYPES));
+        velocityParams.put("stsstr", catalog.get(WorkflowCatalog.STATUSES));
+        velocityParams.put("itsstr", catalog.get(WorkflowCatalog.ISSUE_TYPES));
     }
 
     @Override
@@ -212,40 +105,51 @@ public class LinksValidatorFactory
         Map<String, Object> velocityParams,
         AbstractDescriptor descriptor)
     {
-        List<String> lsts = new ArrayList<String>();
-        String statuses = getParam(descriptor, "status");
-        StringTokenizer st = new StringTokenizer(statuses, "&");
-        while (st.hasMoreTokens())
+        List<String> descriptions = new ArrayList<String>();
+        for (LinkRule rule : getRules(descriptor))
         {
-            Status s = stMgr.getStatus(st.nextToken());
-            if (s != null)
+            StringBuilder sb = new StringBuilder();
+            sb.append(getName(WorkflowCatalog.LINK_TYPES, rule.getLinkTypeId().toString()));
+            sb.append(" (").append(rule.getDirection().name().toLowerCase()).append("): ");
+            sb.append(getName(WorkflowCatalog.PROJECTS, rule.getProjectKey())).append(" / ");
+            sb.append(getName(WorkflowCatalog.ISSUE_TYPES, rule.getIssueTypeId())).append(" in ");
+
+            List<String> lsts = new ArrayList<String>();
+            for (String status : rule.getStatusIds())
             {
-                lsts.add(s.getName());
+                lsts.add(getName(WorkflowCatalog.STATUSES, status));
             }
+            sb.append(lsts);
+            descriptions.add(sb.toString());
         }
 
-        String projkey = getParam(descriptor, "projkey");
-        String issuetype = getParam(descriptor, "issuetype");
-        String linktype = getParam(descriptor, "linktype");
-        Project proj = prMgr.getProjectObjByKey(projkey);
-        IssueLinkType itl = iltMgr.getIssueLinkType(Long.parseLong(linktype));
-        IssueType it = itMgr.getIssueType(issuetype);
+        velocityParams.put("rules", descriptions);
+    }
 
-        if (proj != null)
+    /**
+     * Get rules of the descriptor.
+     */
+    private List<LinkRule> getRules(AbstractDescriptor descriptor)
+    {
+        if (!(descriptor instanceof ValidatorDescriptor))
         {
-            velocityParams.put("proj", proj.getName());
+            throw new IllegalArgumentException("Descriptor must be a ValidatorDescriptor.");
         }
 
-        if (it != null)
-        {
-            velocityParams.put("issuetype", it.getName());
-        }
+        return LinkRule.compile(((ValidatorDescriptor) descriptor).getArgs()).getAll();
+    }
 
-        if (itl != null)
+    /**
+     * Get name of the catalog entry.
+     */
+    private String getName(String kind, String id)
+    {
+        if (id == null || id.length() == 0)
         {
-            velocityParams.put("linktype", itl.getName());
+            return "any";
         }
 
-        velocityParams.put("lsts", lsts);
+        String name = catalog.getName(kind, id);
+        return (name != null) ? name : id;
     }
 }
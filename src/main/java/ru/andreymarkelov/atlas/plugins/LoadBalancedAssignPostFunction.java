@@ -0,0 +1,104 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.config.ConstantsManager;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.issue.status.Status;
+import com.atlassian.jira.security.groups.GroupManager;
+import com.atlassian.jira.security.roles.ProjectRole;
+import com.atlassian.jira.security.roles.ProjectRoleManager;
+import com.atlassian.jira.workflow.function.issue.AbstractJiraFunctionProvider;
+import com.opensymphony.module.propertyset.PropertySet;
+import com.opensymphony.workflow.WorkflowException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import ru.andreymarkelov.atlas.plugins.utils.UserWorkloadCounter;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Assigns the issue to the member of a group or a project role with the fewest open issues.
+ * Members who reached the limit of issues in the status (as <code>LimitByStatusCondition</code> checks it) are skipped.
+ */
+public class LoadBalancedAssignPostFunction extends AbstractJiraFunctionProvider {
+    private static final Log log = LogFactory.getLog(LoadBalancedAssignPostFunction.class);
+
+    private final GroupManager groupManager;
+    private final ProjectRoleManager projectRoleManager;
+    private final ConstantsManager constantsManager;
+    private final UserWorkloadCounter userWorkloadCounter;
+    private final PluginMetrics.Timer timer;
+
+    public LoadBalancedAssignPostFunction(
+            GroupManager groupManager,
+            ProjectRoleManager projectRoleManager,
+            ConstantsManager constantsManager,
+            UserWorkloadCounter userWorkloadCounter,
+            PluginMetrics pluginMetrics) {
+        this.groupManager = groupManager;
+        this.projectRoleManager = projectRoleManager;
+        this.constantsManager = constantsManager;
+        this.userWorkloadCounter = userWorkloadCounter;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.POST_FUNCTION, "LoadBalancedAssignPostFunction");
+    }
+
+    @Override
+    public void execute(Map transientVars, Map args, PropertySet ps) throws WorkflowException {
+        long start = System.nanoTime();
+        try {
+            doExecute(transientVars, args, ps);
+        } finally {
+            timer.record(start, args);
+        }
+    }
+
+    private void doExecute(Map transientVars, Map args, PropertySet ps) throws WorkflowException {
+        MutableIssue issue = getIssue(transientVars);
+
+        Set<User> candidates = new LinkedHashSet<User>();
+        String group = (String) args.get(LoadBalancedAssignPostFunctionFactory.GROUP_KEY);
+        if (Utils.isValidStr(group))
+            candidates.addAll(groupManager.getUsersInGroup(group));
+
+        String role = (String) args.get(LoadBalancedAssignPostFunctionFactory.ROLE_KEY);
+        if (Utils.isValidStr(role)) {
+            ProjectRole projectRole = projectRoleManager.getProjectRole(role);
+            if (projectRole != null && issue.getProjectObject() != null)
+                candidates.addAll(projectRoleManager.getProjectRoleActors(projectRole, issue.getProjectObject()).getUsers());
+        }
+
+        for (Iterator<User> it = candidates.iterator(); it.hasNext();) {
+            if (!it.next().isActive())
+                it.remove();
+        }
+        if (candidates.isEmpty())
+            return;
+
+        String statusId = null;
+        int limit = -1;
+        String status = (String) args.get(LimitByStatusConditionFactoryImpl.STATUS_KEY);
+        if (Utils.isValidStr(status)) {
+            try {
+                limit = Integer.parseInt((String) args.get(LimitByStatusConditionFactoryImpl.LIMIT_KEY));
+                Status statusObj = LoadBalancedAssignPostFunctionFactory.getStatus(constantsManager, status);
+                if (statusObj != null)
+                    statusId = statusObj.getId();
+                else
+                    log.warn("LoadBalancedAssignPostFunction::execute - Unknown status " + status + ", the limit is not checked");
+            } catch (NumberFormatException e) {
+                // no limit
+            }
+        }
+
+        User user = userWorkloadCounter.getLeastLoaded(candidates, statusId, limit);
+        if (user != null) {
+            if (log.isDebugEnabled())
+                log.debug("LoadBalancedAssignPostFunction::execute - Chose " + user.getName() + " with " + userWorkloadCounter.getOpenIssues(user.getName()) + " open issues for " + issue.getKey());
+            issue.setAssignee(user);
+        } else if (log.isDebugEnabled())
+            log.debug("LoadBalancedAssignPostFunction::execute - All candidates reached the limit for " + issue.getKey());
+    }
+}
@@ -0,0 +1,110 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.config.ConstantsManager;
+import com.atlassian.jira.issue.status.Status;
+import com.atlassian.jira.plugin.workflow.AbstractWorkflowPluginFactory;
+import com.atlassian.jira.plugin.workflow.WorkflowPluginFunctionFactory;
+import com.atlassian.jira.security.groups.GroupManager;
+import com.atlassian.jira.security.roles.ProjectRoleManager;
+import com.opensymphony.workflow.loader.AbstractDescriptor;
+import com.opensymphony.workflow.loader.FunctionDescriptor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Factory of {@link LoadBalancedAssignPostFunction}. Groups and statuses are picked from the workflow catalog,
+ * roles from the project roles. Parameters are checked when the function is saved, because an unknown group,
+ * role or status or a bad limit would silently disable assignment or the limit.
+ */
+public class LoadBalancedAssignPostFunctionFactory extends AbstractWorkflowPluginFactory implements WorkflowPluginFunctionFactory {
+    public static final String GROUP_KEY = "group";
+    public static final String ROLE_KEY = "role";
+
+    private static final String[] KEYS = {
+        GROUP_KEY, ROLE_KEY, LimitByStatusConditionFactoryImpl.STATUS_KEY, LimitByStatusConditionFactoryImpl.LIMIT_KEY
+    };
+
+    private final GroupManager groupManager;
+    private final ProjectRoleManager projectRoleManager;
+    private final ConstantsManager constantsManager;
+
+    public LoadBalancedAssignPostFunctionFactory(GroupManager groupManager, ProjectRoleManager projectRoleManager, ConstantsManager constantsManager) {
+        this.groupManager = groupManager;
+        this.projectRoleManager = projectRoleManager;
+        this.constantsManager = constantsManager;
+    }
+
+    @Override
+    public Map<String, ?> getDescriptorParams(Map<String, Object> functionParams) {
+        Map<String, String> result = new HashMap<String, String>();
+        for (String key : KEYS)
+            result.put(key, functionParams.containsKey(key) ? extractSingleParam(functionParams, key).trim() : "");
+
+        String group = result.get(GROUP_KEY);
+        String role = result.get(ROLE_KEY);
+        if (group.length() == 0 && role.length() == 0)
+            throw new IllegalArgumentException("Group or project role must be selected.");
+        if (group.length() > 0 && groupManager.getGroupObject(group) == null)
+            throw new IllegalArgumentException("Group " + group + " does not exist.");
+        if (role.length() > 0 && projectRoleManager.getProjectRole(role) == null)
+            throw new IllegalArgumentException("Project role " + role + " does not exist.");
+
+        String status = result.get(LimitByStatusConditionFactoryImpl.STATUS_KEY);
+        String limit = result.get(LimitByStatusConditionFactoryImpl.LIMIT_KEY);
+        if (status.length() > 0) {
+            if (getStatus(constantsManager, status) == null)
+                throw new IllegalArgumentException("Status " + status + " does not exist.");
+            try {
+                if (Integer.parseInt(limit) < 0)
+                    throw new IllegalArgumentException("Limit must not be negative.");
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Limit must be a number.");
+            }
+        } else if (limit.length() > 0) {
+            throw new IllegalArgumentException("Status of the limit must be selected.");
+        }
+        return result;
+    }
+
+    @Override
+    protected void getVelocityParamsForView(Map<String, Object> velocityParams, AbstractDescriptor descriptor) {
+        if (!(descriptor instanceof FunctionDescriptor))
+            throw new IllegalArgumentException("Descriptor must be a FunctionDescriptor");
+
+        FunctionDescriptor functionDescriptor = (FunctionDescriptor) descriptor;
+        for (String key : KEYS) {
+            String value = (String) functionDescriptor.getArgs().get(key);
+            velocityParams.put(key, value != null ? value : "");
+        }
+        Status status = getStatus(constantsManager, (String) velocityParams.get(LimitByStatusConditionFactoryImpl.STATUS_KEY));
+        velocityParams.put("statusName", status != null ? status.getName() : velocityParams.get(LimitByStatusConditionFactoryImpl.STATUS_KEY));
+    }
+
+    @Override
+    protected void getVelocityParamsForInput(Map<String, Object> velocityParams) {
+        for (String key : KEYS)
+            velocityParams.put(key, "");
+        velocityParams.put("statusName", "");
+        velocityParams.put("roles", projectRoleManager.getProjectRoles());
+    }
+
+    @Override
+    protected void getVelocityParamsForEdit(Map<String, Object> velocityParams, AbstractDescriptor descriptor) {
+        getVelocityParamsForView(velocityParams, descriptor);
+        velocityParams.put("roles", projectRoleManager.getProjectRoles());
+    }
+
+    /**
+     * Finds the status by id or, for functions saved before statuses were picked, by name.
+     */
+    static Status getStatus(ConstantsManager constantsManager, String status) {
+        if (status == null || status.length() == 0)
+            return null;
+        for (Status statusObj : constantsManager.getStatusObjects()) {
+            if (statusObj.getId().equals(status) || statusObj.getName().equals(status))
+                return statusObj;
+        }
+        return null;
+    }
+}
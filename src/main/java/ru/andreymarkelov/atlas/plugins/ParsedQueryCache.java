@@ -0,0 +1,181 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.jql.parser.JqlParseException;
+import com.atlassian.jira.jql.parser.JqlQueryParser;
+import com.atlassian.query.Query;
+import com.atlassian.query.QueryImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parsed queries by JQL text. Parsing does not depend on the user, so one entry serves everybody;
+ * permissions are applied when the query is searched. Invalid JQL is cached as well.
+ * Statistics are shown on the metrics page and registered as the MBean
+ * <code>ru.andreymarkelov.atlas.plugins:type=ParsedQueryCache</code>.
+ */
+public class ParsedQueryCache implements InitializingBean, DisposableBean {
+    private static final Log log = LogFactory.getLog(ParsedQueryCache.class);
+
+    private static final int MAX_ENTRIES = 2000;
+    private static final String OBJECT_NAME = "ru.andreymarkelov.atlas.plugins:type=ParsedQueryCache";
+
+    /**
+     * Marker of JQL which can not be parsed.
+     */
+    private static final Query INVALID = new QueryImpl();
+
+    private final EventPublisher eventPublisher;
+    private final JqlQueryParser jqlQueryParser;
+    private final ConcurrentMap<String, Query> queries = new ConcurrentHashMap<String, Query>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ParsedQueryCache(EventPublisher eventPublisher, JqlQueryParser jqlQueryParser) {
+        this.eventPublisher = eventPublisher;
+        this.jqlQueryParser = jqlQueryParser;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        eventPublisher.register(this);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(new StandardMBean(new Statistics(), StatisticsMBean.class), objectName);
+        } catch (Exception e) {
+            log.warn("ParsedQueryCache::afterPropertiesSet - Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("ParsedQueryCache::destroy - Cannot unregister " + OBJECT_NAME, e);
+        }
+        clear();
+    }
+
+    /**
+     * Returns the parsed query or <code>null</code> if the JQL is not valid.
+     */
+    public Query get(String jql) {
+        if (jql == null)
+            return null;
+
+        Query query = queries.get(jql);
+        if (query != null) {
+            hits.incrementAndGet();
+            return query != INVALID ? query : null;
+        }
+
+        misses.incrementAndGet();
+        try {
+            query = jqlQueryParser.parseQuery(jql);
+        } catch (JqlParseException e) {
+            query = INVALID;
+        }
+        if (queries.size() >= MAX_ENTRIES)
+            queries.clear();
+        queries.put(jql, query);
+        return query != INVALID ? query : null;
+    }
+
+    public void clear() {
+        queries.clear();
+    }
+
+    public int getSize() {
+        return queries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the share of lookups answered from the cache, from 0 to 1.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onClearCache(ClearCacheEvent event) {
+        clear();
+    }
+
+    private final class Statistics implements StatisticsMBean {
+        @Override
+        public int getSize() {
+            return ParsedQueryCache.this.getSize();
+        }
+
+        @Override
+        public long getHits() {
+            return ParsedQueryCache.this.getHits();
+        }
+
+        @Override
+        public long getMisses() {
+            return ParsedQueryCache.this.getMisses();
+        }
+
+        @Override
+        public double getHitRate() {
+            return ParsedQueryCache.this.getHitRate();
+        }
+
+        @Override
+        public void resetStatistics() {
+            ParsedQueryCache.this.resetStatistics();
+        }
+    }
+
+    /**
+     * JMX view of the cache.
+     */
+    public interface StatisticsMBean {
+        int getSize();
+
+        long getHits();
+
+        long getMisses();
+
+        double getHitRate();
+
+        void resetStatistics();
+    }
+}
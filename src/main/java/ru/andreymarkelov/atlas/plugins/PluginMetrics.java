@@ -0,0 +1,263 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counts and latency histograms of validators, post functions, conditions, JQL functions, listeners
+ * and searches of the plugin. Every timer is also registered as an MBean named
+ * <code>ru.andreymarkelov.atlas.plugins:type=Metrics,kind=...,name=...</code>.
+ * Slow calls of workflow elements are passed to {@link SlowOperationLog}.
+ */
+public class PluginMetrics implements DisposableBean {
+    private static final Log log = LogFactory.getLog(PluginMetrics.class);
+
+    public static final String VALIDATOR = "validator";
+    public static final String POST_FUNCTION = "postfunction";
+    public static final String CONDITION = "condition";
+    public static final String JQL_FUNCTION = "jql";
+    public static final String LISTENER = "listener";
+    public static final String SEARCH = "search";
+
+    private static final String DOMAIN = "ru.andreymarkelov.atlas.plugins";
+
+    private final SlowOperationLog slowOperationLog;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    public PluginMetrics(SlowOperationLog slowOperationLog) {
+        this.slowOperationLog = slowOperationLog;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Timer timer : timers.values()) {
+            try {
+                if (server.isRegistered(timer.objectName))
+                    server.unregisterMBean(timer.objectName);
+            } catch (Exception e) {
+                log.warn("PluginMetrics::destroy - Cannot unregister " + timer.objectName, e);
+            }
+        }
+        timers.clear();
+    }
+
+    /**
+     * Returns the timer of the named element of the kind. Timers live as long as the plugin,
+     * so callers may keep them.
+     */
+    public Timer getTimer(String kind, String name) {
+        String key = kind + ':' + name;
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            Timer created = new Timer(kind, name, slowOperationLog);
+            timer = timers.putIfAbsent(key, created);
+            if (timer == null) {
+                timer = created;
+                register(timer);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Returns all timers ordered by kind and name.
+     */
+    public Map<String, Timer> getTimers() {
+        return new TreeMap<String, Timer>(timers);
+    }
+
+    public void reset() {
+        for (Timer timer : timers.values())
+            timer.reset();
+    }
+
+    private static void register(Timer timer) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(timer.objectName))
+                server.unregisterMBean(timer.objectName);
+            server.registerMBean(new StandardMBean(timer, TimerMBean.class), timer.objectName);
+        } catch (Exception e) {
+            log.warn("PluginMetrics::register - Cannot register " + timer.objectName, e);
+        }
+    }
+
+    /**
+     * JMX view of a timer.
+     */
+    public interface TimerMBean {
+        long getCalls();
+
+        double getMeanMillis();
+
+        double getMaxMillis();
+
+        double getP50Millis();
+
+        double getP95Millis();
+
+        double getP99Millis();
+
+        void reset();
+    }
+
+    /**
+     * Latencies of a single element. Times are counted in log-linear buckets of microseconds,
+     * four buckets per power of two, so percentiles are within 25% of the real values.
+     * Concurrent calls mostly update different buckets.
+     */
+    public static final class Timer implements TimerMBean {
+        private static final int BUCKETS = 160;
+
+        private final String kind;
+        private final String name;
+        private final ObjectName objectName;
+        private final SlowOperationLog slowOperationLog;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Timer(String kind, String name, SlowOperationLog slowOperationLog) {
+            this.kind = kind;
+            this.name = name;
+            this.slowOperationLog = slowOperationLog;
+            ObjectName objectName = null;
+            try {
+                objectName = new ObjectName(DOMAIN + ":type=Metrics,kind=" + ObjectName.quote(kind) + ",name=" + ObjectName.quote(name));
+            } catch (Exception e) {
+                //--> impossible with quoted values
+            }
+            this.objectName = objectName;
+        }
+
+        /**
+         * Records a call started at the given {@link System#nanoTime()}.
+         */
+        public void record(long start) {
+            add(System.nanoTime() - start);
+        }
+
+        /**
+         * Records a call of a workflow element with the descriptor arguments, which are logged if the call is slow.
+         */
+        public void record(long start, Map<?, ?> args) {
+            long time = System.nanoTime() - start;
+            add(time);
+            slowOperationLog.add(kind, name, args, time);
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getCalls() {
+            long calls = 0;
+            for (int i = 0; i < BUCKETS; i++)
+                calls += buckets.get(i);
+            return calls;
+        }
+
+        public long getTotalMillis() {
+            return nanos.get() / 1000000;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long calls = getCalls();
+            return calls > 0 ? nanos.get() / 1000000.0 / calls : 0;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1000000.0;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return getPercentileMillis(0.5);
+        }
+
+        @Override
+        public double getP95Millis() {
+            return getPercentileMillis(0.95);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return getPercentileMillis(0.99);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the percentile, not more than the maximum.
+         */
+        public double getPercentileMillis(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long calls = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                calls += counts[i];
+            }
+            if (calls == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(percentile * calls);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(upperBound(i) / 1000.0, getMaxMillis());
+            }
+            return getMaxMillis();
+        }
+
+        @Override
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets.set(i, 0);
+            nanos.set(0);
+            maxNanos.set(0);
+        }
+
+        private void add(long time) {
+            buckets.incrementAndGet(bucket(time / 1000));
+            nanos.addAndGet(time);
+            long max = maxNanos.get();
+            while (time > max && !maxNanos.compareAndSet(max, time))
+                max = maxNanos.get();
+        }
+
+        private static int bucket(long micros) {
+            if (micros < 4)
+                return (int) Math.max(micros, 0);
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exp - 2)) & 3;
+            return Math.min((exp - 1) * 4 + sub, BUCKETS - 1);
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < 4)
+                return bucket + 1;
+            int exp = bucket / 4 + 1;
+            int sub = bucket % 4;
+            return (5L + sub) << (exp - 2);
+        }
+    }
+}
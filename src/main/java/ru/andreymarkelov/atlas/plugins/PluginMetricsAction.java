@@ -0,0 +1,60 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
+import com.atlassian.jira.web.action.JiraWebActionSupport;
+
+import java.util.Collection;
+
+/**
+ * Administration page of the plugin metrics.
+ */
+public class PluginMetricsAction extends JiraWebActionSupport {
+    private final PluginMetrics pluginMetrics;
+    private final ParsedQueryCache parsedQueryCache;
+    private final PermissionManager permissionManager;
+
+    public PluginMetricsAction(PluginMetrics pluginMetrics, ParsedQueryCache parsedQueryCache, PermissionManager permissionManager) {
+        this.pluginMetrics = pluginMetrics;
+        this.parsedQueryCache = parsedQueryCache;
+        this.permissionManager = permissionManager;
+    }
+
+    private boolean hasAdminPermission() {
+        return getLoggedInUser() != null && permissionManager.hasPermission(Permissions.ADMINISTER, getLoggedInUser());
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+        return INPUT;
+    }
+
+    @RequiresXsrfCheck
+    public String doReset() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        pluginMetrics.reset();
+        parsedQueryCache.resetStatistics();
+        return getRedirect("UtilsMetrics!default.jspa");
+    }
+
+    public Collection<PluginMetrics.Timer> getTimers() {
+        return pluginMetrics.getTimers().values();
+    }
+
+    public ParsedQueryCache getParsedQueryCache() {
+        return parsedQueryCache;
+    }
+
+    public String formatPercent(double rate) {
+        return String.format("%.1f%%", rate * 100);
+    }
+
+    public String formatMillis(double millis) {
+        return String.format("%.1f", millis);
+    }
+}
@@ -20,13 +20,17 @@ public class RegexValidator
 {
     private final CustomFieldManager customFieldManager;
 
+    private final PluginMetrics.Timer timer;
+
     /**
      * Constructor.
      */
     public RegexValidator(
-        CustomFieldManager customFieldManager)
+        CustomFieldManager customFieldManager,
+        PluginMetrics pluginMetrics)
     {
         this.customFieldManager = customFieldManager;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.VALIDATOR, "RegexValidator");
     }
 
     @Override
@@ -35,6 +39,23 @@ public class RegexValidator
         Map args,
         PropertySet ps)
     throws InvalidInputException, WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doValidate(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doValidate(
+        Map transientVars,
+        Map args,
+        PropertySet ps)
+    throws InvalidInputException, WorkflowException
     {
         Issue issue = (Issue) transientVars.get("issue");
 
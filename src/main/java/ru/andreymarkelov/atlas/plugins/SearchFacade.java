@@ -0,0 +1,131 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.index.DocumentConstants;
+import com.atlassian.jira.issue.search.SearchException;
+import com.atlassian.jira.issue.search.SearchProvider;
+import com.atlassian.jira.issue.search.SearchResults;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+
+/**
+ * Searches of validators, conditions and JQL functions of the plugin.
+ * Call counts and times of every operation are kept by {@link PluginMetrics}.
+ */
+public class SearchFacade {
+    public static final String PARSE = "parse";
+    public static final String SEARCH = "search";
+    public static final String COUNT = "count";
+    public static final String IDS = "ids";
+
+    private final SearchService searchService;
+    private final SearchProvider searchProvider;
+    private final ParsedQueryCache parsedQueryCache;
+    private final PluginMetrics pluginMetrics;
+
+    public SearchFacade(SearchService searchService, SearchProvider searchProvider, ParsedQueryCache parsedQueryCache, PluginMetrics pluginMetrics) {
+        this.searchService = searchService;
+        this.searchProvider = searchProvider;
+        this.parsedQueryCache = parsedQueryCache;
+        this.pluginMetrics = pluginMetrics;
+    }
+
+    /**
+     * Returns the parsed query or <code>null</code> if the JQL is not valid.
+     * Queries are cached by the JQL text, see {@link ParsedQueryCache}.
+     */
+    public Query parse(User user, String jql) {
+        long start = System.nanoTime();
+        try {
+            return parsedQueryCache.get(jql);
+        } finally {
+            getTimer(PARSE).record(start);
+        }
+    }
+
+    public SearchResults search(User user, Query query, PagerFilter pager) throws SearchException {
+        long start = System.nanoTime();
+        try {
+            return searchService.search(user, query, pager);
+        } finally {
+            getTimer(SEARCH).record(start);
+        }
+    }
+
+    public long count(User user, Query query) throws SearchException {
+        long start = System.nanoTime();
+        try {
+            return searchService.searchCount(user, query);
+        } finally {
+            getTimer(COUNT).record(start);
+        }
+    }
+
+    /**
+     * Adds values of the numeric index field of at most <code>max</code> found issues to the set,
+     * e.g. ids of the issues or of their parents. Issues are not loaded.
+     * Returns the number of found issues, which may be greater than <code>max</code>.
+     */
+    public int collect(User user, Query query, String field, int max, IssueIdSet target) throws SearchException {
+        long start = System.nanoTime();
+        try {
+            IssueIdCollector collector = new IssueIdCollector(field, max, target);
+            searchProvider.search(query, user, collector);
+            return collector.hits;
+        } finally {
+            getTimer(IDS).record(start);
+        }
+    }
+
+    private PluginMetrics.Timer getTimer(String operation) {
+        return pluginMetrics.getTimer(PluginMetrics.SEARCH, operation);
+    }
+
+    private static final class IssueIdCollector extends Collector {
+        private final String field;
+        private final MapFieldSelector selector;
+        private final int max;
+        private final IssueIdSet issueIds;
+        private IndexReader reader;
+        private int hits;
+
+        private IssueIdCollector(String field, int max, IssueIdSet issueIds) {
+            this.field = field;
+            this.selector = new MapFieldSelector(new String[] {field});
+            this.max = max;
+            this.issueIds = issueIds;
+        }
+
+        @Override
+        public void setScorer(Scorer scorer) throws IOException {
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (hits++ >= max)
+                return;
+            Document document = reader.document(doc, selector);
+            String value = document.get(field);
+            if (value != null && value.length() > 0)
+                issueIds.add(Long.parseLong(value));
+        }
+
+        @Override
+        public void setNextReader(IndexReader reader, int docBase) throws IOException {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return true;
+        }
+    }
+}
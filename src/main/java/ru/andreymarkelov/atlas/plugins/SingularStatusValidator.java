@@ -6,12 +6,16 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.ComponentManager;
 import com.atlassian.jira.config.StatusManager;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.issuetype.IssueType;
+import com.atlassian.jira.issue.search.SearchException;
 import com.atlassian.jira.issue.status.Status;
 import com.atlassian.jira.util.I18nHelper;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
 import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.workflow.InvalidInputException;
 import com.opensymphony.workflow.Validator;
@@ -22,19 +26,41 @@ public class SingularStatusValidator implements Validator
 {
     private final StatusManager statusManager;
 
+    private final SearchFacade searchFacade;
+
+    private final PluginMetrics.Timer timer;
+
     private final Logger log = Logger.getLogger(SingularStatusValidator.class);
 
     /**
      * Constructor.
      */
-    public SingularStatusValidator(StatusManager statusManager)
+    public SingularStatusValidator(StatusManager statusManager,
+        SearchFacade searchFacade,
+        PluginMetrics pluginMetrics)
     {
         this.statusManager = statusManager;
+        this.searchFacade = searchFacade;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.VALIDATOR, "SingularStatusValidator");
     }
 
     @Override
     public void validate(Map transientVars, Map args, PropertySet ps)
         throws InvalidInputException, WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doValidate(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doValidate(Map transientVars, Map args, PropertySet ps)
+        throws InvalidInputException, WorkflowException
     {
         Issue issue = (Issue) transientVars.get("issue");
 
@@ -48,10 +74,12 @@ public class SingularStatusValidator implements Validator
             return;
         }
 
+        Long issueTypeId;
+        Long issueStatusId;
         try
         {
-            Long.valueOf(issueTypeParam);
-            Long.valueOf(issueStatusParam);
+            issueTypeId = Long.valueOf(issueTypeParam);
+            issueStatusId = Long.valueOf(issueStatusParam);
         }
         catch (NumberFormatException e)
         {
@@ -68,11 +96,21 @@ public class SingularStatusValidator implements Validator
         Status issStatus = statusManager.getStatus(issueStatusParam);
         IssueType issType = issue.getIssueTypeObject();
 
-        final String jqlQuery = String.format(
-            "project = %s and issuetype = %s and status = %s", issue
-                .getProjectObject().getKey(), issueTypeParam, issueStatusParam);
+        User user = ComponentManager.getInstance()
+            .getJiraAuthenticationContext().getLoggedInUser();
+        Query query = IssueQueries.byProjectTypeAndStatus(
+            issue.getProjectObject().getId(), issueTypeId, issueStatusId);
 
-        List<Issue> issues = Utils.executeJQLQuery(jqlQuery);
+        List<Issue> issues;
+        try
+        {
+            issues = searchFacade.search(user, query, new PagerFilter(1)).getIssues();
+        }
+        catch (SearchException e)
+        {
+            log.error("SingularStatusValidator:validate - Search error", e);
+            return;
+        }
         if (issues != null && issues.size() > 0)
         {
             I18nHelper i18n = ComponentManager.getInstance()
@@ -8,11 +8,26 @@ import com.atlassian.jira.plugin.workflow.AbstractWorkflowPluginFactory;
 import com.atlassian.jira.plugin.workflow.WorkflowPluginValidatorFactory;
 import com.opensymphony.workflow.loader.AbstractDescriptor;
 import com.opensymphony.workflow.loader.ValidatorDescriptor;
+import ru.andreymarkelov.atlas.plugins.utils.WorkflowCatalog;
 
 
 public class SingularStatusValidatorFactory extends
         AbstractWorkflowPluginFactory implements WorkflowPluginValidatorFactory
 {
+    /**
+     * Workflow catalog.
+     */
+    private final WorkflowCatalog catalog;
+
+    /**
+     * Constructor.
+     */
+    public SingularStatusValidatorFactory(
+        WorkflowCatalog catalog)
+    {
+        this.catalog = catalog;
+    }
+
     @Override
     public Map<String, ?> getDescriptorParams(
         Map<String, Object> conditionParams)
@@ -56,30 +71,48 @@ public class SingularStatusValidatorFactory extends
         }
     }
 
+    /**
+     * Puts the issue type and the status with their names, other values are loaded by the page.
+     */
+    private void putParams(Map<String, Object> velocityParams,
+        String issueType, String issueStatus)
+    {
+        velocityParams.put(Consts.ISSUE_TYPE, issueType);
+        velocityParams.put(Consts.ISSUE_STATUS, issueStatus);
+        velocityParams.put("issueTypeName",
+            getName(WorkflowCatalog.ISSUE_TYPES, issueType));
+        velocityParams.put("issueStatusName",
+            getName(WorkflowCatalog.STATUSES, issueStatus));
+    }
+
+    /**
+     * Get name of the catalog entry or the id if there is no such entry.
+     */
+    private String getName(String kind, String id)
+    {
+        String name = catalog.getName(kind, id);
+        return name != null ? name : id;
+    }
+
     @Override
     protected void getVelocityParamsForEdit(Map<String, Object> velocityParams,
         AbstractDescriptor descriptor)
     {
-        velocityParams.put(Consts.ISSUE_TYPE,
-            getParam(descriptor, Consts.ISSUE_TYPE));
-        velocityParams.put(Consts.ISSUE_STATUS,
+        putParams(velocityParams, getParam(descriptor, Consts.ISSUE_TYPE),
             getParam(descriptor, Consts.ISSUE_STATUS));
     }
 
     @Override
     protected void getVelocityParamsForInput(Map<String, Object> velocityParams)
     {
-        velocityParams.put(Consts.ISSUE_TYPE, "");
-        velocityParams.put(Consts.ISSUE_STATUS, "");
+        putParams(velocityParams, "", "");
     }
 
     @Override
     protected void getVelocityParamsForView(Map<String, Object> velocityParams,
         AbstractDescriptor descriptor)
     {
-        velocityParams.put(Consts.ISSUE_TYPE,
-            getParam(descriptor, Consts.ISSUE_TYPE));
-        velocityParams.put(Consts.ISSUE_STATUS,
+        putParams(velocityParams, getParam(descriptor, Consts.ISSUE_TYPE),
             getParam(descriptor, Consts.ISSUE_STATUS));
     }
 }
@@ -0,0 +1,191 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.component.ComponentAccessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The last operations of the plugin which took longer than the threshold, with their arguments,
+ * user, result size and phase times. Older operations are overwritten.
+ */
+public class SlowOperationLog {
+    public static final long DEFAULT_THRESHOLD = 1000;
+
+    private static final String THRESHOLD_KEY = "slowlog.threshold";
+    private static final int CAPACITY = 200;
+    private static final int MAX_ARGUMENTS_LENGTH = 1000;
+
+    private final UtilsSettings settings;
+    private volatile long thresholdNanos = -1;
+
+    /**
+     * Ring of the operations. Guarded by <code>this</code>.
+     */
+    private final Operation[] operations = new Operation[CAPACITY];
+    private int next;
+
+    public SlowOperationLog(UtilsSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Returns the threshold in milliseconds. Zero disables the log.
+     */
+    public long getThreshold() {
+        return settings.getLong(THRESHOLD_KEY, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Stores the threshold. <code>null</code> restores the default.
+     */
+    public void setThreshold(Long threshold) {
+        settings.setLong(THRESHOLD_KEY, threshold);
+        thresholdNanos = -1;
+    }
+
+    /**
+     * Checks whether an operation of the given time must be logged.
+     */
+    public boolean isSlow(long nanos) {
+        long threshold = thresholdNanos;
+        if (threshold < 0) {
+            threshold = getThreshold() * 1000000;
+            thresholdNanos = threshold;
+        }
+        return threshold > 0 && nanos >= threshold;
+    }
+
+    /**
+     * Logs the operation if it is slow. <code>null</code> user stands for the logged in user,
+     * negative result size for an unknown one.
+     */
+    public void add(String kind, String name, User user, String arguments, long resultSize, Map<String, Long> phaseNanos, long nanos) {
+        if (!isSlow(nanos))
+            return;
+
+        if (user == null)
+            user = ComponentAccessor.getJiraAuthenticationContext().getLoggedInUser();
+        if (arguments != null && arguments.length() > MAX_ARGUMENTS_LENGTH)
+            arguments = arguments.substring(0, MAX_ARGUMENTS_LENGTH) + "...";
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        if (phaseNanos != null) {
+            for (Map.Entry<String, Long> entry : phaseNanos.entrySet())
+                phases.put(entry.getKey(), entry.getValue() / 1000000);
+        }
+
+        Operation operation = new Operation(System.currentTimeMillis(), kind, name, user != null ? user.getName() : null,
+            arguments, resultSize, Collections.unmodifiableMap(phases), nanos / 1000000);
+        synchronized (this) {
+            operations[next] = operation;
+            next = (next + 1) % CAPACITY;
+        }
+    }
+
+    /**
+     * Logs the workflow element if it is slow. Arguments are the descriptor arguments.
+     */
+    public void add(String kind, String name, Map<?, ?> args, long nanos) {
+        if (isSlow(nanos))
+            add(kind, name, null, formatArguments(args), -1, null, nanos);
+    }
+
+    /**
+     * Returns logged operations, the latest first.
+     */
+    public List<Operation> getOperations() {
+        List<Operation> result = new ArrayList<Operation>(CAPACITY);
+        synchronized (this) {
+            for (int i = 1; i <= CAPACITY; i++) {
+                Operation operation = operations[(next - i + CAPACITY) % CAPACITY];
+                if (operation == null)
+                    break;
+                result.add(operation);
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            for (int i = 0; i < CAPACITY; i++)
+                operations[i] = null;
+            next = 0;
+        }
+    }
+
+    private static String formatArguments(Map<?, ?> args) {
+        if (args == null)
+            return null;
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<?, ?> entry : args.entrySet()) {
+            if ("class.name".equals(entry.getKey()))
+                continue;
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A logged operation. Times are in milliseconds.
+     */
+    public static final class Operation {
+        private final long time;
+        private final String kind;
+        private final String name;
+        private final String user;
+        private final String arguments;
+        private final long resultSize;
+        private final Map<String, Long> phases;
+        private final long duration;
+
+        private Operation(long time, String kind, String name, String user, String arguments, long resultSize, Map<String, Long> phases, long duration) {
+            this.time = time;
+            this.kind = kind;
+            this.name = name;
+            this.user = user;
+            this.arguments = arguments;
+            this.resultSize = resultSize;
+            this.phases = phases;
+            this.duration = duration;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getArguments() {
+            return arguments;
+        }
+
+        public long getResultSize() {
+            return resultSize;
+        }
+
+        public Map<String, Long> getPhases() {
+            return phases;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+    }
+}
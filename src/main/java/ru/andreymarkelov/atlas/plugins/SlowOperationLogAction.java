@@ -0,0 +1,110 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
+import com.atlassian.jira.web.action.JiraWebActionSupport;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Administration page of the slow operation log.
+ */
+public class SlowOperationLogAction extends JiraWebActionSupport {
+    private final SlowOperationLog slowOperationLog;
+    private final PermissionManager permissionManager;
+
+    private String threshold;
+    private Long thresholdValue;
+    private boolean saved;
+
+    public SlowOperationLogAction(SlowOperationLog slowOperationLog, PermissionManager permissionManager) {
+        this.slowOperationLog = slowOperationLog;
+        this.permissionManager = permissionManager;
+    }
+
+    private boolean hasAdminPermission() {
+        return getLoggedInUser() != null && permissionManager.hasPermission(Permissions.ADMINISTER, getLoggedInUser());
+    }
+
+    @Override
+    public String doDefault() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        threshold = String.valueOf(slowOperationLog.getThreshold());
+        return INPUT;
+    }
+
+    @Override
+    protected void doValidation() {
+        if (!Utils.isValidStr(threshold))
+            return;
+
+        try {
+            long value = Long.parseLong(threshold.trim());
+            if (value >= 0) {
+                thresholdValue = value;
+                return;
+            }
+        } catch (NumberFormatException e) {
+            //--> error below
+        }
+        addError("threshold", getText("utils.admin.slowlog.error.number"));
+    }
+
+    @Override
+    @RequiresXsrfCheck
+    protected String doExecute() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        slowOperationLog.setThreshold(thresholdValue);
+        return getRedirect("UtilsSlowOperations!default.jspa?saved=true");
+    }
+
+    @RequiresXsrfCheck
+    public String doClear() throws Exception {
+        if (!hasAdminPermission())
+            return PERMISSION_VIOLATION_RESULT;
+
+        slowOperationLog.clear();
+        return getRedirect("UtilsSlowOperations!default.jspa");
+    }
+
+    public List<SlowOperationLog.Operation> getOperations() {
+        return slowOperationLog.getOperations();
+    }
+
+    public String formatTime(long time) {
+        return getDateTimeFormatter().format(new Date(time));
+    }
+
+    public String formatPhases(SlowOperationLog.Operation operation) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> phase : operation.getPhases().entrySet()) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(phase.getKey()).append(": ").append(phase.getValue());
+        }
+        return sb.toString();
+    }
+
+    public String getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(String threshold) {
+        this.threshold = threshold;
+    }
+
+    public boolean isSaved() {
+        return saved;
+    }
+
+    public void setSaved(boolean saved) {
+        this.saved = saved;
+    }
+}
@@ -1,8 +1,5 @@
 package ru.andreymarkelov.atlas.plugins;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -14,15 +11,12 @@ import com.atlassian.jira.JiraDataType;
 import com.atlassian.jira.JiraDataTypes;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.exception.DataAccessException;
-import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.status.Status;
 import com.atlassian.jira.jql.operand.QueryLiteral;
 import com.atlassian.jira.jql.query.QueryCreationContext;
-import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
 import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
 import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.util.MessageSet;
 import com.atlassian.jira.util.MessageSetImpl;
 import com.atlassian.query.clause.TerminalClause;
@@ -53,9 +47,11 @@ public class TransitionCountFunction extends AbstractJqlFunction {
 
     private final static Log log = LogFactory.getLog(TransitionCountFunction.class);
     private final PermissionManager permissionManager;
+    private final JqlFunctionLimits jqlFunctionLimits;
 
-    public TransitionCountFunction(PermissionManager permissionManager) {
+    public TransitionCountFunction(PermissionManager permissionManager, JqlFunctionLimits jqlFunctionLimits) {
         this.permissionManager = permissionManager;
+        this.jqlFunctionLimits = jqlFunctionLimits;
     }
 
     @Override
@@ -68,6 +64,13 @@ public class TransitionCountFunction extends AbstractJqlFunction {
         return 4;
     }
 
+    /**
+     * Creates the query of the function.
+     */
+    static IssueIdQuery createQuery(long projectId, String status, long count, String op) {
+        return new IssueIdQuery(String.format(SQL, op), projectId, status, count);
+    }
+
     @Override
     public List<QueryLiteral> getValues(QueryCreationContext context, FunctionOperand operand, TerminalClause terminalClause) {
         List<String> keys = operand.getArgs();
@@ -76,27 +79,12 @@ public class TransitionCountFunction extends AbstractJqlFunction {
         String count = keys.get(2);
         String op = keys.get(3);
 
-        List<QueryLiteral> literals = new LinkedList<QueryLiteral>();
+        long projectId = ComponentManager.getInstance().getProjectManager().getProjectObjByKey(project).getId();
 
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet rs = null;
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds;
         try {
-            conn = new DefaultOfBizConnectionFactory().getConnection();
-
-            pStmt = conn.prepareStatement(String.format(SQL, op));
-            pStmt.setLong(1, ComponentManager.getInstance().getProjectManager().getProjectObjByKey(project).getId());
-            pStmt.setString(2, status);
-            pStmt.setLong(3, Long.parseLong(count));
-
-            rs = pStmt.executeQuery();
-            IssueManager imgr = ComponentManager.getInstance().getIssueManager();
-            while (rs.next()) {
-                Long l = rs.getLong(1);
-                Issue issue = imgr.getIssueObject(l);
-                if (issue != null && permissionManager.hasPermission(Permissions.BROWSE, issue, context.getUser()))
-                    literals.add(new QueryLiteral(operand, l));
-            }
+            issueIds = createQuery(projectId, status, Long.parseLong(count), op).execute(budget);
         } catch (DataAccessException e) {
             log.error("TransitionCountFunction::getValues - An error occured", e);
             return null;
@@ -104,12 +92,13 @@ public class TransitionCountFunction extends AbstractJqlFunction {
             log.error("TransitionCountFunction::getValues - An error occured", e);
             return null;
         } finally {
-            Utils.closeResultSet(rs);
-            Utils.closeStaement(pStmt);
-            Utils.closeConnection(conn);
+            budget.finish();
         }
 
-        return literals;
+        IssueManager imgr = ComponentManager.getInstance().getIssueManager();
+        IssueIdSet visible = issueIds.retainBrowsable(imgr, permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
     }
 
     @Override
@@ -148,6 +137,8 @@ public class TransitionCountFunction extends AbstractJqlFunction {
                 messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrectoperatorparameter", op, operand.getName()));
         }
 
+        jqlFunctionLimits.addWarnings(messages, operand);
+
         return messages;
     }
 }
@@ -4,13 +4,9 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,20 +17,18 @@ import com.atlassian.jira.JiraDataType;
 import com.atlassian.jira.JiraDataTypes;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.exception.DataAccessException;
-import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.status.Status;
 import com.atlassian.jira.jql.operand.QueryLiteral;
 import com.atlassian.jira.jql.query.QueryCreationContext;
-import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
 import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
 import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.util.MessageSet;
 import com.atlassian.jira.util.MessageSetImpl;
 import com.atlassian.jira.util.NotNull;
 import com.atlassian.query.clause.TerminalClause;
 import com.atlassian.query.operand.FunctionOperand;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
 
 /**
  * This JQL function finds all issues that the transition was performed in the time.
@@ -59,13 +53,27 @@ public class TransitionDateFunction
      */
     private final PermissionManager permissionManager;
 
+    /**
+     * Limits of JQL functions.
+     */
+    private final JqlFunctionLimits jqlFunctionLimits;
+
+    /**
+     * Duration parser.
+     */
+    private final DurationParser durationParser;
+
     /**
      * Constructor.
      */
     public TransitionDateFunction(
-        PermissionManager permissionManager)
+        PermissionManager permissionManager,
+        JqlFunctionLimits jqlFunctionLimits,
+        DurationParser durationParser)
     {
         this.permissionManager = permissionManager;
+        this.jqlFunctionLimits = jqlFunctionLimits;
+        this.durationParser = durationParser;
     }
 
     @Override
@@ -81,6 +89,14 @@ public class TransitionDateFunction
         return 2;
     }
 
+    /**
+     * Creates the query of the function.
+     */
+    static IssueIdQuery createQuery(Timestamp since, String status)
+    {
+        return new IssueIdQuery(SQL, since, status);
+    }
+
     @Override
     @NotNull
     public List<QueryLiteral> getValues(
@@ -95,7 +111,7 @@ public class TransitionDateFunction
         long lastFindTime = System.currentTimeMillis();
         try
         {
-            long diffTime = ComponentManager.getInstance().getJiraDurationUtils().parseDuration(time, ComponentManager.getInstance().getJiraAuthenticationContext().getLocale());
+            long diffTime = durationParser.parseDuration(time);
             lastFindTime -= (diffTime * 1000);
         }
         catch (InvalidDurationException e)
@@ -103,28 +119,11 @@ public class TransitionDateFunction
             return null;
         }
 
-        List<QueryLiteral> literals = new LinkedList<QueryLiteral>();
-
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet rs = null;
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds;
         try
         {
-            conn = new DefaultOfBizConnectionFactory().getConnection();
-            pStmt = conn.prepareStatement(SQL);
-            pStmt.setTimestamp(1, new Timestamp(lastFindTime));
-            pStmt.setString(2, status);
-            rs = pStmt.executeQuery();
-            IssueManager imgr = ComponentManager.getInstance().getIssueManager();
-            while (rs.next())
-            {
-                Long l = rs.getLong(1);
-                Issue issue = imgr.getIssueObject(l);
-                if (issue != null && permissionManager.hasPermission(Permissions.BROWSE, issue, context.getUser()))
-                {
-                    literals.add(new QueryLiteral(operand, l));
-                }
-            }
+            issueIds = createQuery(new Timestamp(lastFindTime), status).execute(budget);
         }
         catch (DataAccessException e)
         {
@@ -138,12 +137,13 @@ public class TransitionDateFunction
         }
         finally
         {
-            Utils.closeResultSet(rs);
-            Utils.closeStaement(pStmt);
-            Utils.closeConnection(conn);
+            budget.finish();
         }
 
-        return literals;
+        IssueManager imgr = ComponentManager.getInstance().getIssueManager();
+        IssueIdSet visible = issueIds.retainBrowsable(imgr, permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
     }
 
     @Override
@@ -167,7 +167,7 @@ public class TransitionDateFunction
 
             try
             {
-                ComponentManager.getInstance().getJiraDurationUtils().parseDuration(time, ComponentManager.getInstance().getJiraAuthenticationContext().getLocale());
+                durationParser.parseDuration(time);
             }
             catch (InvalidDurationException e)
             {
@@ -191,6 +191,8 @@ public class TransitionDateFunction
             }
         }
 
+        jqlFunctionLimits.addWarnings(messages, operand);
+
         return messages;
     }
 }
@@ -4,12 +4,8 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,15 +15,12 @@ import com.atlassian.jira.JiraDataType;
 import com.atlassian.jira.JiraDataTypes;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.exception.DataAccessException;
-import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.status.Status;
 import com.atlassian.jira.jql.operand.QueryLiteral;
 import com.atlassian.jira.jql.query.QueryCreationContext;
-import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
 import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
 import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.util.UserUtil;
 import com.atlassian.jira.util.MessageSet;
 import com.atlassian.jira.util.MessageSetImpl;
@@ -58,6 +51,11 @@ public class TransitionReporterFunction
      */
     private final PermissionManager permissionManager;
 
+    /**
+     * Limits of JQL functions.
+     */
+    private final JqlFunctionLimits jqlFunctionLimits;
+
     /**
      * User utils.
      */
@@ -68,10 +66,12 @@ public class TransitionReporterFunction
      */
     public TransitionReporterFunction(
         UserUtil userUtil,
-        PermissionManager permissionManager)
+        PermissionManager permissionManager,
+        JqlFunctionLimits jqlFunctionLimits)
     {
         this.userUtil = userUtil;
         this.permissionManager = permissionManager;
+        this.jqlFunctionLimits = jqlFunctionLimits;
     }
 
     @Override
@@ -87,6 +87,14 @@ public class TransitionReporterFunction
         return 2;
     }
 
+    /**
+     * Creates the query of the function.
+     */
+    static IssueIdQuery createQuery(String userName, String status)
+    {
+        return new IssueIdQuery(SQL, userName, status);
+    }
+
     @Override
     @NotNull
     public List<QueryLiteral> getValues(
@@ -104,28 +112,11 @@ public class TransitionReporterFunction
             return null;
         }
 
-        List<QueryLiteral> literals = new LinkedList<QueryLiteral>();
-
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet rs = null;
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds;
         try
         {
-            conn = new DefaultOfBizConnectionFactory().getConnection();
-            pStmt = conn.prepareStatement(SQL);
-            pStmt.setString(1, userObj.getName());
-            pStmt.setString(2, status);
-            rs = pStmt.executeQuery();
-            IssueManager imgr = ComponentManager.getInstance().getIssueManager();
-            while (rs.next())
-            {
-                Long l = rs.getLong(1);
-                Issue issue = imgr.getIssueObject(l);
-                if (issue != null && permissionManager.hasPermission(Permissions.BROWSE, issue, context.getUser()))
-                {
-                    literals.add(new QueryLiteral(operand, l));
-                }
-            }
+            issueIds = createQuery(userObj.getName(), status).execute(budget);
         }
         catch (DataAccessException e)
         {
@@ -139,12 +130,13 @@ public class TransitionReporterFunction
         }
         finally
         {
-            Utils.closeResultSet(rs);
-            Utils.closeStaement(pStmt);
-            Utils.closeConnection(conn);
+            budget.finish();
         }
 
-        return literals;
+        IssueManager imgr = ComponentManager.getInstance().getIssueManager();
+        IssueIdSet visible = issueIds.retainBrowsable(imgr, permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
     }
 
     @Override
@@ -191,6 +183,8 @@ public class TransitionReporterFunction
             }
         }
 
+        jqlFunctionLimits.addWarnings(messages, operand);
+
         return messages;
     }
 }
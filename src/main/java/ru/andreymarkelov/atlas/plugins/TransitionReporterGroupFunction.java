@@ -6,15 +6,12 @@ import com.atlassian.jira.JiraDataType;
 import com.atlassian.jira.JiraDataTypes;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.exception.DataAccessException;
-import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.status.Status;
 import com.atlassian.jira.jql.operand.QueryLiteral;
 import com.atlassian.jira.jql.query.QueryCreationContext;
-import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
 import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
 import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.util.UserUtil;
 import com.atlassian.jira.util.MessageSet;
 import com.atlassian.jira.util.MessageSetImpl;
@@ -26,13 +23,9 @@ import org.apache.commons.logging.LogFactory;
 import ru.andreymarkelov.atlas.plugins.TransitionCountFunction;
 import ru.andreymarkelov.atlas.plugins.Utils;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -62,10 +55,12 @@ public class TransitionReporterGroupFunction extends AbstractJqlFunction {
     private final static Log log = LogFactory.getLog(TransitionCountFunction.class);
     private final PermissionManager permissionManager;
     private final UserUtil userUtil;
+    private final JqlFunctionLimits jqlFunctionLimits;
 
-    public TransitionReporterGroupFunction(PermissionManager permissionManager, UserUtil userUtil) {
+    public TransitionReporterGroupFunction(PermissionManager permissionManager, UserUtil userUtil, JqlFunctionLimits jqlFunctionLimits) {
         this.permissionManager = permissionManager;
         this.userUtil = userUtil;
+        this.jqlFunctionLimits = jqlFunctionLimits;
     }
 
     @Override
@@ -103,35 +98,28 @@ public class TransitionReporterGroupFunction extends AbstractJqlFunction {
                 messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrectgroupparameter", operand.getName()));
         }
 
+        jqlFunctionLimits.addWarnings(messages, operand);
+
         return messages;
     }
 
+    /**
+     * Creates the query of the function.
+     */
+    static IssueIdQuery createQuery(String status, String group) {
+        return new IssueIdQuery(SQL, status, group);
+    }
+
     @Override
     public List<QueryLiteral> getValues(QueryCreationContext context, FunctionOperand operand, TerminalClause terminalClause) {
         List<String> keys = operand.getArgs();
         String status = keys.get(0);
         String group = keys.get(1);
 
-        List<QueryLiteral> literals = new LinkedList<QueryLiteral>();
-
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet rs = null;
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds;
         try {
-            conn = new DefaultOfBizConnectionFactory().getConnection();
-
-            pStmt = conn.prepareStatement(SQL);
-            pStmt.setString(1, status);
-            pStmt.setString(2, group);
-
-            rs = pStmt.executeQuery();
-            IssueManager issueManager = ComponentManager.getInstance().getIssueManager();
-            while (rs.next()) {
-                Long l = rs.getLong(1);
-                Issue issue = issueManager.getIssueObject(l);
-                if (issue != null && permissionManager.hasPermission(Permissions.BROWSE, issue, context.getUser()))
-                    literals.add(new QueryLiteral(operand, l));
-            }
+            issueIds = createQuery(status, group).execute(budget);
         } catch (DataAccessException e) {
             log.error("TransitionReporterGroupFunction::getValues - DataAccessException", e);
             return null;
@@ -139,11 +127,12 @@ public class TransitionReporterGroupFunction extends AbstractJqlFunction {
             log.error("TransitionReporterGroupFunction::getValues - SQLException", e);
             return null;
         } finally {
-            Utils.closeResultSet(rs);
-            Utils.closeStaement(pStmt);
-            Utils.closeConnection(conn);
+            budget.finish();
         }
 
-        return literals;
+        IssueManager issueManager = ComponentManager.getInstance().getIssueManager();
+        IssueIdSet visible = issueIds.retainBrowsable(issueManager, permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
     }
 }
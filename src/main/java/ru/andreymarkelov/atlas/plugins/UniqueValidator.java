@@ -7,13 +7,13 @@ package ru.andreymarkelov.atlas.plugins;
 import java.util.Map;
 import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.jira.ComponentManager;
-import com.atlassian.jira.bc.issue.search.SearchService;
 import com.atlassian.jira.issue.CustomFieldManager;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.fields.CustomField;
 import com.atlassian.jira.issue.search.SearchException;
 import com.atlassian.jira.issue.search.SearchResults;
 import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
 import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.workflow.InvalidInputException;
 import com.opensymphony.workflow.Validator;
@@ -24,17 +24,21 @@ public class UniqueValidator
 {
     private final CustomFieldManager customFieldManager;
 
-    private final SearchService searchService;
+    private final SearchFacade searchFacade;
+
+    private final PluginMetrics.Timer timer;
 
     /**
      * Constructor.
      */
     public UniqueValidator(
         CustomFieldManager customFieldManager,
-        SearchService searchService)
+        SearchFacade searchFacade,
+        PluginMetrics pluginMetrics)
     {
         this.customFieldManager = customFieldManager;
-        this.searchService = searchService;
+        this.searchFacade = searchFacade;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.VALIDATOR, "UniqueValidator");
     }
 
     @Override
@@ -43,6 +47,23 @@ public class UniqueValidator
         Map args,
         PropertySet ps)
     throws InvalidInputException, WorkflowException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            doValidate(transientVars, args, ps);
+        }
+        finally
+        {
+            timer.record(start, args);
+        }
+    }
+
+    private void doValidate(
+        Map transientVars,
+        Map args,
+        PropertySet ps)
+    throws InvalidInputException, WorkflowException
     {
         Issue issue = (Issue) transientVars.get("issue");
 
@@ -78,12 +99,12 @@ public class UniqueValidator
                 return;
             }
 
-            SearchService.ParseResult parseResult = searchService.parseQuery(user, jql);
-            if (parseResult.isValid())
+            Query query = searchFacade.parse(user, jql);
+            if (query != null)
             {
                 try
                 {
-                    SearchResults results = searchService.search(user, parseResult.getQuery(), PagerFilter.getUnlimitedFilter());
+                    SearchResults results = searchFacade.search(user, query, PagerFilter.getUnlimitedFilter());
                     if (results != null)
                     {
                         for (Issue i : results.getIssues())
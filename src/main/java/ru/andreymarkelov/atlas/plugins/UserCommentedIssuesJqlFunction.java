@@ -4,13 +4,8 @@
  */
 package ru.andreymarkelov.atlas.plugins;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Calendar;
-import java.util.LinkedList;
 import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,20 +16,18 @@ import com.atlassian.jira.JiraDataType;
 import com.atlassian.jira.JiraDataTypes;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.exception.DataAccessException;
-import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.jql.operand.QueryLiteral;
 import com.atlassian.jira.jql.query.QueryCreationContext;
-import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
 import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
 import com.atlassian.jira.security.PermissionManager;
-import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.util.UserUtil;
 import com.atlassian.jira.util.MessageSet;
 import com.atlassian.jira.util.MessageSetImpl;
 import com.atlassian.jira.util.NotNull;
 import com.atlassian.query.clause.TerminalClause;
 import com.atlassian.query.operand.FunctionOperand;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
 
 /**
  * This JQL function finds all issues that was commented by the user in the last time.
@@ -52,7 +45,7 @@ public class UserCommentedIssuesJqlFunction
     /**
      * Processed SQL.
      */
-    private final static String SQL = "SELECT ISSUEID FROM jiraaction WHERE ACTIONTYPE = 'comment' AND UPDATED > ? AND UPDATEAUTHOR = ? ORDER BY UPDATED DESC";
+    private final static String SQL = "SELECT DISTINCT ISSUEID FROM jiraaction WHERE ACTIONTYPE = 'comment' AND UPDATED > ? AND UPDATEAUTHOR = ?";
 
     /**
      * User utils.
@@ -64,15 +57,29 @@ public class UserCommentedIssuesJqlFunction
      */
     private final PermissionManager permissionManager;
 
+    /**
+     * Limits of JQL functions.
+     */
+    private final JqlFunctionLimits jqlFunctionLimits;
+
+    /**
+     * Duration parser.
+     */
+    private final DurationParser durationParser;
+
     /**
      * Constructor.
      */
     public UserCommentedIssuesJqlFunction(
         UserUtil userUtil,
-        PermissionManager permissionManager)
+        PermissionManager permissionManager,
+        JqlFunctionLimits jqlFunctionLimits,
+        DurationParser durationParser)
     {
         this.userUtil = userUtil;
         this.permissionManager = permissionManager;
+        this.jqlFunctionLimits = jqlFunctionLimits;
+        this.durationParser = durationParser;
     }
 
     @Override
@@ -88,6 +95,14 @@ public class UserCommentedIssuesJqlFunction
         return 2;
     }
 
+    /**
+     * Creates the query of the function.
+     */
+    static IssueIdQuery createQuery(Timestamp since, String userName)
+    {
+        return new IssueIdQuery(SQL, since, userName);
+    }
+
     @Override
     @NotNull
     public List<QueryLiteral> getValues(
@@ -99,37 +114,14 @@ public class UserCommentedIssuesJqlFunction
         String user = keys.get(0);
         String time = keys.get(1);
 
-        long lastFindTime = System.currentTimeMillis();
-        if (time.equals("startOfWeek"))
-        {
-            Calendar cal = Calendar.getInstance();
-            cal.set(Calendar.DAY_OF_WEEK, 1);
-            cal.set(Calendar.HOUR_OF_DAY, 0);
-            cal.clear(Calendar.MINUTE);
-            cal.clear(Calendar.SECOND);
-            cal.clear(Calendar.MILLISECOND);
-            lastFindTime = cal.getTimeInMillis();
-        }
-        else if (time.equals("startOfDay"))
+        long lastFindTime;
+        try
         {
-            Calendar cal = Calendar.getInstance();
-            cal.set(Calendar.HOUR_OF_DAY, 0);
-            cal.clear(Calendar.MINUTE);
-            cal.clear(Calendar.SECOND);
-            cal.clear(Calendar.MILLISECOND);
-            lastFindTime = cal.getTimeInMillis();
+            lastFindTime = Utils.getStartTime(durationParser, time);
         }
-        else
+        catch (InvalidDurationException e)
         {
-            try
-            {
-                long diffTime = ComponentManager.getInstance().getJiraDurationUtils().parseDuration(time, ComponentManager.getInstance().getJiraAuthenticationContext().getLocale());
-                lastFindTime -= (diffTime * 1000);
-            }
-            catch (InvalidDurationException e)
-            {
-                return null;
-            }
+            return null;
         }
 
         User userObj = userUtil.getUserObject(user);
@@ -138,28 +130,11 @@ public class UserCommentedIssuesJqlFunction
             return null;
         }
 
-        List<QueryLiteral> literals = new LinkedList<QueryLiteral>();
-
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet rs = null;
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds;
         try
         {
-            conn = new DefaultOfBizConnectionFactory().getConnection();
-            pStmt = conn.prepareStatement(SQL);
-            pStmt.setTimestamp(1, new Timestamp(lastFindTime));
-            pStmt.setString(2, userObj.getName());
-            rs = pStmt.executeQuery();
-            IssueManager imgr = ComponentManager.getInstance().getIssueManager();
-            while (rs.next())
-            {
-                Long l = rs.getLong(1);
-                Issue issue = imgr.getIssueObject(l);
-                if (issue != null && permissionManager.hasPermission(Permissions.BROWSE, issue, context.getUser()))
-                {
-                    literals.add(new QueryLiteral(operand, l));
-                }
-            }
+            issueIds = createQuery(new Timestamp(lastFindTime), userObj.getName()).execute(budget);
         }
         catch (DataAccessException e)
         {
@@ -173,12 +148,13 @@ public class UserCommentedIssuesJqlFunction
         }
         finally
         {
-            Utils.closeResultSet(rs);
-            Utils.closeStaement(pStmt);
-            Utils.closeConnection(conn);
+            budget.finish();
         }
 
-        return literals;
+        IssueManager imgr = ComponentManager.getInstance().getIssueManager();
+        IssueIdSet visible = issueIds.retainBrowsable(imgr, permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
     }
 
     @Override
@@ -207,24 +183,15 @@ public class UserCommentedIssuesJqlFunction
             }
             else
             {
-                if (time != null && (time.equals("startOfWeek") || time.equals("startOfDay")))
+                if (!Utils.isValidTime(durationParser, time))
                 {
-                    //--> nothing
-                }
-                else
-                {
-                    try
-                    {
-                        ComponentManager.getInstance().getJiraDurationUtils().parseDuration(time, ComponentManager.getInstance().getJiraAuthenticationContext().getLocale());
-                    }
-                    catch (InvalidDurationException e)
-                    {
-                        messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrecttimeparameter", operand.getName()));
-                    }
+                    messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrecttimeparameter", operand.getName()));
                 }
             }
         }
 
+        jqlFunctionLimits.addWarnings(messages, operand);
+
         return messages;
     }
 }
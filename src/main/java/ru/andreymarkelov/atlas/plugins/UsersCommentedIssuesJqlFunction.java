@@ -0,0 +1,169 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.core.util.InvalidDurationException;
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.ComponentManager;
+import com.atlassian.jira.JiraDataType;
+import com.atlassian.jira.JiraDataTypes;
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.exception.DataAccessException;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.jql.operand.QueryLiteral;
+import com.atlassian.jira.jql.query.QueryCreationContext;
+import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.user.util.UserUtil;
+import com.atlassian.jira.util.MessageSet;
+import com.atlassian.jira.util.MessageSetImpl;
+import com.atlassian.query.clause.TerminalClause;
+import com.atlassian.query.operand.FunctionOperand;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This JQL function finds all issues that were commented by any of the users in the last time.
+ * The users are passed as a comma separated list and are looked up in a single query.
+ */
+public class UsersCommentedIssuesJqlFunction extends AbstractJqlFunction {
+    private final static String SQL =
+            "SELECT DISTINCT\n" +
+            "    ja.issueid\n" +
+            "FROM\n" +
+            "    jiraaction ja\n" +
+            "WHERE\n" +
+            "    ja.actiontype = 'comment'\n" +
+            "    AND ja.updated > ?\n" +
+            "    AND (%s)";
+
+    private final static Log log = LogFactory.getLog(UsersCommentedIssuesJqlFunction.class);
+    private final PermissionManager permissionManager;
+    private final UserUtil userUtil;
+    private final JqlFunctionLimits jqlFunctionLimits;
+    private final DurationParser durationParser;
+
+    public UsersCommentedIssuesJqlFunction(PermissionManager permissionManager, UserUtil userUtil, JqlFunctionLimits jqlFunctionLimits, DurationParser durationParser) {
+        this.permissionManager = permissionManager;
+        this.userUtil = userUtil;
+        this.jqlFunctionLimits = jqlFunctionLimits;
+        this.durationParser = durationParser;
+    }
+
+    @Override
+    public JiraDataType getDataType() {
+        return JiraDataTypes.ISSUE;
+    }
+
+    @Override
+    public int getMinimumNumberOfExpectedArguments() {
+        return 2;
+    }
+
+    /**
+     * Split the comma separated user list.
+     */
+    private Set<String> getUserNames(String users) {
+        Set<String> userNames = new LinkedHashSet<String>();
+        for (String user : users.split(",")) {
+            String userName = user.trim();
+            if (userName.length() > 0)
+                userNames.add(userName);
+        }
+        return userNames;
+    }
+
+    @Override
+    public MessageSet validate(User searcher, FunctionOperand operand, TerminalClause terminalClause) {
+        MessageSet messages = new MessageSetImpl();
+
+        List<String> keys = operand.getArgs();
+        if (keys.size() != 2) {
+            messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrectparameters", operand.getName()));
+        } else {
+            Set<String> userNames = getUserNames(keys.get(0));
+            if (userNames.isEmpty())
+                messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrectuserparameter", operand.getName()));
+            for (String userName : userNames) {
+                if (userUtil.getUserObject(userName) == null) {
+                    messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrectuserparameter", operand.getName()));
+                    break;
+                }
+            }
+
+            if (!Utils.isValidTime(durationParser, keys.get(1)))
+                messages.addErrorMessage(ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText("utils.incorrecttimeparameter", operand.getName()));
+        }
+
+        jqlFunctionLimits.addWarnings(messages, operand);
+
+        return messages;
+    }
+
+    /**
+     * Creates the query of the function.
+     */
+    static IssueIdQuery createQuery(Timestamp since, List<String> userNames) {
+        //--> the users are split into IN lists of at most IssueQueries.MAX_IN_VALUES values for Oracle
+        StringBuilder condition = new StringBuilder();
+        Object[] params = new Object[userNames.size() + 1];
+        params[0] = since;
+        int index = 1;
+        for (String userName : userNames) {
+            if ((index - 1) % IssueQueries.MAX_IN_VALUES == 0)
+                condition.append(index == 1 ? "ja.updateauthor IN (?" : ") OR ja.updateauthor IN (?");
+            else
+                condition.append(", ?");
+            params[index++] = userName;
+        }
+        condition.append(')');
+        return new IssueIdQuery(String.format(SQL, condition), params);
+    }
+
+    @Override
+    public List<QueryLiteral> getValues(QueryCreationContext context, FunctionOperand operand, TerminalClause terminalClause) {
+        List<String> keys = operand.getArgs();
+        String time = keys.get(1);
+
+        long lastFindTime;
+        try {
+            lastFindTime = Utils.getStartTime(durationParser, time);
+        } catch (InvalidDurationException e) {
+            return null;
+        }
+
+        List<String> userNames = new LinkedList<String>();
+        for (String userName : getUserNames(keys.get(0))) {
+            User userObj = userUtil.getUserObject(userName);
+            if (userObj != null)
+                userNames.add(userObj.getName());
+        }
+        if (userNames.isEmpty())
+            return null;
+
+        JqlFunctionLimits.Budget budget = jqlFunctionLimits.start(getFunctionName(), operand);
+        IssueIdSet issueIds;
+        try {
+            issueIds = createQuery(new Timestamp(lastFindTime), userNames).execute(budget);
+        } catch (DataAccessException e) {
+            log.error("UsersCommentedIssuesJqlFunction::getValues - DataAccessException", e);
+            return null;
+        } catch (SQLException e) {
+            log.error("UsersCommentedIssuesJqlFunction::getValues - SQLException", e);
+            return null;
+        } finally {
+            budget.finish();
+        }
+
+        IssueManager issueManager = ComponentManager.getInstance().getIssueManager();
+        IssueIdSet visible = issueIds.retainBrowsable(issueManager, permissionManager, context.getUser());
+        budget.report(context.getUser(), visible);
+        return visible.toLiterals(operand);
+    }
+}
@@ -9,19 +9,10 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.List;
+import java.util.Calendar;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.atlassian.crowd.embedded.api.User;
-import com.atlassian.jira.ComponentManager;
-import com.atlassian.jira.bc.issue.search.SearchService;
-import com.atlassian.jira.issue.Issue;
-import com.atlassian.jira.issue.search.SearchException;
-import com.atlassian.jira.issue.search.SearchResults;
-import com.atlassian.jira.web.bean.PagerFilter;
-import com.atlassian.query.Query;
+import com.atlassian.core.util.InvalidDurationException;
+import ru.andreymarkelov.atlas.plugins.utils.DurationParser;
 
 
 /**
@@ -31,11 +22,6 @@ import com.atlassian.query.Query;
  */
 public class Utils
 {
-    private static final Logger log = LoggerFactory.getLogger(Utils.class);
-
-    private static final SearchService searchService = ComponentManager
-        .getComponentInstanceOfType(SearchService.class);
-
     /**
      * Close connection.
      */
@@ -99,33 +85,56 @@ public class Utils
     }
 
     /**
-     * Executes JQL Query
+     * Get start of the time interval. The time is a duration or one of
+     * <code>startOfDay</code> and <code>startOfWeek</code>.
      */
-    public static List<Issue> executeJQLQuery(String jqlQuery)
+    public static long getStartTime(DurationParser durationParser, String time)
+        throws InvalidDurationException
     {
-        List<Issue> result = null;
-
-        User user = ComponentManager.getInstance()
-            .getJiraAuthenticationContext().getLoggedInUser();
-        SearchService.ParseResult parseResult = searchService.parseQuery(user,
-            jqlQuery);
+        if (time.equals("startOfWeek"))
+        {
+            Calendar cal = Calendar.getInstance();
+            cal.set(Calendar.DAY_OF_WEEK, 1);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.clear(Calendar.MINUTE);
+            cal.clear(Calendar.SECOND);
+            cal.clear(Calendar.MILLISECOND);
+            return cal.getTimeInMillis();
+        }
+        else if (time.equals("startOfDay"))
+        {
+            Calendar cal = Calendar.getInstance();
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.clear(Calendar.MINUTE);
+            cal.clear(Calendar.SECOND);
+            cal.clear(Calendar.MILLISECOND);
+            return cal.getTimeInMillis();
+        }
+        else
+        {
+            return System.currentTimeMillis() - (durationParser.parseDuration(time) * 1000);
+        }
+    }
 
-        if (parseResult.isValid())
+    /**
+     * Check time parameter of JQL functions.
+     */
+    public static boolean isValidTime(DurationParser durationParser, String time)
+    {
+        if (time == null)
         {
-            Query query = parseResult.getQuery();
-            try
-            {
-                SearchResults results = searchService.search(user, query,
-                    PagerFilter.getUnlimitedFilter());
-                result = results.getIssues();
-            }
-            catch (SearchException e)
-            {
-                log.error("Utils::search exception during executing JQL", e);
-            }
+            return false;
         }
 
-        return result;
+        try
+        {
+            getStartTime(durationParser, time);
+            return true;
+        }
+        catch (InvalidDurationException e)
+        {
+            return false;
+        }
     }
 
     /**
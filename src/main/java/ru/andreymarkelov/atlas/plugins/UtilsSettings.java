@@ -0,0 +1,48 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.config.properties.ApplicationProperties;
+
+/**
+ * Plugin settings stored in the Jira application properties.
+ */
+public class UtilsSettings {
+    private static final String PREFIX = "ru.andreymarkelov.atlas.plugins.utils.";
+
+    private final ApplicationProperties applicationProperties;
+
+    public UtilsSettings(ApplicationProperties applicationProperties) {
+        this.applicationProperties = applicationProperties;
+    }
+
+    public String getString(String key) {
+        return applicationProperties.getString(PREFIX + key);
+    }
+
+    public void setString(String key, String value) {
+        applicationProperties.setString(PREFIX + key, value);
+    }
+
+    public String getText(String key) {
+        return applicationProperties.getText(PREFIX + key);
+    }
+
+    public void setText(String key, String value) {
+        applicationProperties.setText(PREFIX + key, value);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key);
+        if (!Utils.isValidStr(value))
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public void setLong(String key, Long value) {
+        setString(key, value != null ? value.toString() : null);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.andreymarkelov.atlas.plugins;
+
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.util.json.JSONArray;
+import com.atlassian.jira.util.json.JSONObject;
+import com.atlassian.jira.web.action.JiraWebActionSupport;
+import ru.andreymarkelov.atlas.plugins.utils.WorkflowCatalog;
+import webwork.action.ServletActionContext;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Pages of the workflow catalog for the pickers of the workflow plugin editors.
+ * Answers <code>{"items": [{"id": ..., "name": ...}], "more": true|false}</code>.
+ */
+public class WorkflowCatalogAction extends JiraWebActionSupport {
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final WorkflowCatalog workflowCatalog;
+    private final PermissionManager permissionManager;
+
+    private String kind;
+    private String q;
+    private int start;
+    private int max = 50;
+
+    public WorkflowCatalogAction(WorkflowCatalog workflowCatalog, PermissionManager permissionManager) {
+        this.workflowCatalog = workflowCatalog;
+        this.permissionManager = permissionManager;
+    }
+
+    @Override
+    protected String doExecute() throws Exception {
+        HttpServletResponse response = ServletActionContext.getResponse();
+        if (getLoggedInUser() == null || !permissionManager.hasPermission(Permissions.ADMINISTER, getLoggedInUser())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return NONE;
+        }
+        if (!workflowCatalog.isKind(kind)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return NONE;
+        }
+
+        WorkflowCatalog.Page page = workflowCatalog.find(kind, q, Math.max(start, 0), Math.min(Math.max(max, 1), MAX_PAGE_SIZE));
+        JSONArray items = new JSONArray();
+        for (Map.Entry<String, String> entry : page.getEntries()) {
+            JSONObject item = new JSONObject();
+            item.put("id", entry.getKey());
+            item.put("name", entry.getValue());
+            items.put(item);
+        }
+        JSONObject result = new JSONObject();
+        result.put("items", items);
+        result.put("more", page.hasMore());
+
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().write(result.toString());
+        return NONE;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public void setQ(String q) {
+        this.q = q;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    public void setMax(int max) {
+        this.max = max;
+    }
+}
@@ -0,0 +1,173 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.project.Project;
+import ru.andreymarkelov.atlas.plugins.Utils;
+import ru.andreymarkelov.atlas.plugins.UtilsSettings;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap pre-filter of the attachment listener: event types and projects are checked before the change
+ * log is touched. Counts seen, handled and skipped events.
+ */
+public class AttachmentEventFilter {
+    private static final String PROJECTS_KEY = "attachment.filter.projects";
+    private static final String EVENT_TYPES_KEY = "attachment.filter.eventtypes";
+
+    private final UtilsSettings settings;
+    private final AtomicLong seen = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile Rules rules;
+
+    public AttachmentEventFilter(UtilsSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Checks the event type and the project of the event. Counts the event as seen and, if it is
+     * rejected, as skipped.
+     */
+    public boolean accept(IssueEvent issueEvent) {
+        seen.incrementAndGet();
+        Rules current = rules;
+        if (current == null)
+            current = load();
+
+        if (!current.eventTypes.contains(issueEvent.getEventTypeId()))
+            return skip();
+
+        Issue issue = issueEvent.getIssue();
+        if (issue == null)
+            return skip();
+        if (!current.projects.isEmpty()) {
+            Project project = issue.getProjectObject();
+            if (project == null || !current.projects.contains(project.getKey()))
+                return skip();
+        }
+        return true;
+    }
+
+    public boolean skip() {
+        skipped.incrementAndGet();
+        return false;
+    }
+
+    public void handled() {
+        handled.incrementAndGet();
+    }
+
+    public long getSeen() {
+        return seen.get();
+    }
+
+    public long getHandled() {
+        return handled.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public void resetCounters() {
+        seen.set(0);
+        handled.set(0);
+        skipped.set(0);
+    }
+
+    /**
+     * Returns comma separated keys of the allowed projects. Empty string allows all projects.
+     */
+    public String getProjects() {
+        String value = settings.getString(PROJECTS_KEY);
+        return value != null ? value : "";
+    }
+
+    /**
+     * Returns comma separated ids of the handled event types.
+     */
+    public String getEventTypes() {
+        String value = settings.getString(EVENT_TYPES_KEY);
+        return Utils.isValidStr(value) ? value : EventType.ISSUE_UPDATED_ID.toString();
+    }
+
+    /**
+     * Stores the filter. Event types must be comma separated numbers.
+     */
+    public void setFilter(String projects, String eventTypes) throws NumberFormatException {
+        Set<String> projectKeys = parseProjects(projects);
+        Set<Long> eventTypeIds = parseEventTypes(eventTypes);
+        settings.setString(PROJECTS_KEY, join(projectKeys));
+        settings.setString(EVENT_TYPES_KEY, join(eventTypeIds));
+        load();
+    }
+
+    public void clear() {
+        rules = null;
+    }
+
+    private Rules load() {
+        Set<Long> eventTypeIds;
+        try {
+            eventTypeIds = parseEventTypes(getEventTypes());
+        } catch (NumberFormatException e) {
+            eventTypeIds = Collections.singleton(EventType.ISSUE_UPDATED_ID);
+        }
+        Rules loaded = new Rules(parseProjects(getProjects()), eventTypeIds);
+        rules = loaded;
+        return loaded;
+    }
+
+    private static Set<String> parseProjects(String value) {
+        Set<String> projectKeys = new HashSet<String>();
+        if (value != null) {
+            for (String key : value.split(",")) {
+                if (key.trim().length() > 0)
+                    projectKeys.add(key.trim());
+            }
+        }
+        return projectKeys;
+    }
+
+    private static Set<Long> parseEventTypes(String value) throws NumberFormatException {
+        Set<Long> eventTypeIds = new HashSet<Long>();
+        if (value != null) {
+            for (String id : value.split(",")) {
+                if (id.trim().length() > 0)
+                    eventTypeIds.add(Long.valueOf(id.trim()));
+            }
+        }
+        if (eventTypeIds.isEmpty())
+            eventTypeIds.add(EventType.ISSUE_UPDATED_ID);
+        return eventTypeIds;
+    }
+
+    private static String join(Set<?> values) {
+        StringBuilder sb = new StringBuilder();
+        for (Object value : values) {
+            if (sb.length() > 0)
+                sb.append(",");
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parsed filter settings.
+     */
+    private static class Rules {
+        private final Set<String> projects;
+        private final Set<Long> eventTypes;
+
+        private Rules(Set<String> projects, Set<Long> eventTypes) {
+            this.projects = projects;
+            this.eventTypes = eventTypes;
+        }
+    }
+}
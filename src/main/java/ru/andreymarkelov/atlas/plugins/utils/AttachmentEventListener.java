@@ -4,90 +4,239 @@ import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.event.api.EventListener;
 import com.atlassian.event.api.EventPublisher;
 import com.atlassian.jira.component.ComponentAccessor;
-import com.atlassian.jira.config.properties.APKeys;
+import com.atlassian.jira.event.ClearCacheEvent;
 import com.atlassian.jira.event.issue.IssueEvent;
-import com.atlassian.jira.event.type.EventType;
 import com.atlassian.jira.issue.AttachmentManager;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.attachment.Attachment;
 import com.atlassian.jira.issue.comments.Comment;
 import com.atlassian.jira.issue.comments.CommentManager;
 import com.atlassian.jira.issue.comments.MutableComment;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.ofbiz.core.entity.GenericEntityException;
 import org.ofbiz.core.entity.GenericValue;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
-import java.util.Arrays;
+import ru.andreymarkelov.atlas.plugins.PluginMetrics;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds an informational comment on files attaching. The event thread only collects attachment ids,
+ * comments are written by a background thread. Attachments added to an issue by the same user within
+ * a short window are coalesced, so a bulk upload costs a single comment write. Attachments added
+ * together with a comment get their footer appended to that comment.
+ */
 public class AttachmentEventListener implements InitializingBean, DisposableBean {
+    private static final Log log = LogFactory.getLog(AttachmentEventListener.class);
+    private static final long FLUSH_DELAY = 2000;
+    private static final Map<String, String> ATTACHMENT_ITEM = Collections.singletonMap("field", "Attachment");
+
     private final EventPublisher eventPublisher;
+    private final AttachmentFooterTemplates footerTemplates;
+    private final AttachmentEventFilter eventFilter;
+    private final PluginMetrics.Timer timer;
+    private final Map<String, PendingComment> pending = new HashMap<String, PendingComment>();
+    private ScheduledExecutorService executor;
 
-    public AttachmentEventListener(EventPublisher eventPublisher) {
+    public AttachmentEventListener(
+            EventPublisher eventPublisher,
+            AttachmentFooterTemplates footerTemplates,
+            AttachmentEventFilter eventFilter,
+            PluginMetrics pluginMetrics) {
         this.eventPublisher = eventPublisher;
+        this.footerTemplates = footerTemplates;
+        this.eventFilter = eventFilter;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.LISTENER, "AttachmentEventListener");
     }
 
     @Override
     public void afterPropertiesSet() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "utils-attachment-comments");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
         eventPublisher.register(this);
     }
- 
+
     @Override
     public void destroy() throws Exception {
         eventPublisher.unregister(this);
+        executor.shutdown();
+        executor.awaitTermination(FLUSH_DELAY * 2, TimeUnit.MILLISECONDS);
+
+        List<String> keys;
+        synchronized (pending) {
+            keys = new ArrayList<String>(pending.keySet());
+        }
+        for (String key : keys)
+            flush(key);
     }
 
     @SuppressWarnings("unused")
     @EventListener
     public void onIssueEvent(IssueEvent issueEvent) {
-        if (EventType.ISSUE_UPDATED_ID.equals(issueEvent.getEventTypeId())) {
+        long start = System.nanoTime();
+        try {
+            handleIssueEvent(issueEvent);
+        } finally {
+            timer.record(start);
+        }
+    }
+
+    private void handleIssueEvent(IssueEvent issueEvent) {
+        if (eventFilter.accept(issueEvent)) {
             Issue issue = issueEvent.getIssue();
             User user = issueEvent.getUser();
             GenericValue changeLog = issueEvent.getChangeLog();
-            if (issue == null || user == null || changeLog == null)
+            if (user == null || changeLog == null) {
+                eventFilter.skip();
                 return;
+            }
 
-            AttachmentManager attachmentManager = ComponentAccessor.getAttachmentManager();
-            CommentManager commentManager = ComponentAccessor.getCommentManager();
-            String baseUrl = ComponentAccessor.getApplicationProperties().getString(APKeys.JIRA_BASEURL);
-            String arrowUrl = String.format("%s/images/icons/link_attachment_7.gif", baseUrl);
-
-            StringBuilder filesSb = new StringBuilder();
-            StringBuilder imagesSb = new StringBuilder();
+            List<Long> attachmentIds = new ArrayList<Long>();
             try {
-                for (GenericValue changeItem : changeLog.getRelated("ChildChangeItem")) {
-                    Object field = changeItem.get("field");
+                for (GenericValue changeItem : changeLog.getRelatedByAnd("ChildChangeItem", ATTACHMENT_ITEM)) {
                     Object newValue = changeItem.get("newvalue");
-                    if ("Attachment".equals(field) && newValue != null) {
-                        Long attachmentId = Long.parseLong(newValue.toString());
-                        Attachment attachment = attachmentManager.getAttachment(attachmentId);
-                        if (attachment != null) {
-                            String attachmentUrl = String.format("%s/secure/attachment/%d/%d_%s", baseUrl, attachmentId, attachmentId, attachment.getFilename());
-                            String attachmentTitle = String.format("%s attached to %s", attachment.getFilename(), issueEvent.getIssue().getKey());
-
-                            if (Arrays.asList("image/jpeg", "image/png", "image/gif").contains(attachment.getMimetype())) {
-                                String thumbnailUrl = String.format("%s/secure/thumbnail/%d/%d__thumb_%d.png", baseUrl, attachmentId, attachmentId, attachmentId);
-                                imagesSb.append("[!").append(thumbnailUrl).append("!|").append(attachmentUrl).append("|").append(attachmentTitle).append("] ");
-                            } else
-                                filesSb.append("[").append(attachment.getFilename()).append("|").append(attachmentUrl).append("|").append(attachmentTitle).append("]^!").append(arrowUrl).append("!^\n");
-                        }
-                    }
+                    if (newValue != null)
+                        attachmentIds.add(Long.parseLong(newValue.toString()));
                 }
             } catch (NumberFormatException ignored) {
             } catch (GenericEntityException ignored) {
             }
+            if (attachmentIds.isEmpty()) {
+                eventFilter.skip();
+                return;
+            }
+            eventFilter.handled();
+
+            String key = issue.getId() + ":" + user.getName();
+            Comment comment = issueEvent.getComment();
+            synchronized (pending) {
+                PendingComment pendingComment = pending.get(key);
+                if (pendingComment == null) {
+                    pendingComment = new PendingComment(issue, user.getName());
+                    pending.put(key, pendingComment);
+                    schedule(key);
+                }
+                pendingComment.add(comment != null ? comment.getId() : null, attachmentIds);
+                pendingComment.time = issueEvent.getTime();
+            }
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onClearCache(ClearCacheEvent clearCacheEvent) {
+        footerTemplates.clear();
+        eventFilter.clear();
+    }
+
+    private void schedule(final String key) {
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(key);
+                }
+            }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //--> flushed on destroy
+        }
+    }
+
+    private void flush(String key) {
+        PendingComment pendingComment;
+        synchronized (pending) {
+            pendingComment = pending.remove(key);
+        }
+        if (pendingComment == null)
+            return;
+
+        try {
+            write(pendingComment);
+        } catch (Exception e) {
+            log.error("AttachmentEventListener::flush - Error writing attachment comment", e);
+        }
+    }
+
+    private void write(PendingComment pendingComment) {
+        AttachmentManager attachmentManager = ComponentAccessor.getAttachmentManager();
+        CommentManager commentManager = ComponentAccessor.getCommentManager();
+
+        List<Long> uncommented = new ArrayList<Long>();
+        for (Map.Entry<Long, List<Long>> entry : pendingComment.attachmentIds.entrySet()) {
+            MutableComment mutableComment = entry.getKey() != null ? commentManager.getMutableComment(entry.getKey()) : null;
+            if (mutableComment == null) {
+                uncommented.addAll(entry.getValue());
+                continue;
+            }
 
-            String footer = filesSb.toString() + imagesSb.toString().trim();
+            String footer = render(attachmentManager, pendingComment.issue, entry.getValue());
             if (!footer.isEmpty()) {
-                Comment currentComment = issueEvent.getComment();
-
-                if (currentComment != null) {
-                    MutableComment mutableComment = commentManager.getMutableComment(currentComment.getId());
-                    mutableComment.setBody(mutableComment.getBody() + "\n" + footer);
-                    commentManager.update(mutableComment, false);
-                } else
-                    commentManager.create(issue, user.getName(), footer, null, null, issueEvent.getTime(), false);
+                mutableComment.setBody(mutableComment.getBody() + "\n" + footer);
+                commentManager.update(mutableComment, false);
+            }
+        }
+
+        if (!uncommented.isEmpty()) {
+            String footer = render(attachmentManager, pendingComment.issue, uncommented);
+            if (!footer.isEmpty())
+                commentManager.create(pendingComment.issue, pendingComment.userName, footer, null, null, pendingComment.time, false);
+        }
+    }
+
+    private String render(AttachmentManager attachmentManager, Issue issue, List<Long> attachmentIds) {
+        List<Attachment> attachments = new ArrayList<Attachment>(attachmentIds.size());
+        for (Long attachmentId : attachmentIds) {
+            Attachment attachment = attachmentManager.getAttachment(attachmentId);
+            if (attachment != null)
+                attachments.add(attachment);
+        }
+        return footerTemplates.render(issue, attachments);
+    }
+
+    /**
+     * Attachments of an issue waiting for the comment write.
+     */
+    private static class PendingComment {
+        private final Issue issue;
+        private final String userName;
+        /**
+         * Attachment ids by the id of the comment added with them, <code>null</code> for attachments without a comment.
+         */
+        private final Map<Long, List<Long>> attachmentIds = new LinkedHashMap<Long, List<Long>>();
+        private Date time;
+
+        private PendingComment(Issue issue, String userName) {
+            this.issue = issue;
+            this.userName = userName;
+        }
+
+        private void add(Long commentId, List<Long> ids) {
+            List<Long> commentAttachmentIds = attachmentIds.get(commentId);
+            if (commentAttachmentIds == null) {
+                commentAttachmentIds = new ArrayList<Long>();
+                attachmentIds.put(commentId, commentAttachmentIds);
             }
+            commentAttachmentIds.addAll(ids);
         }
     }
 }
@@ -0,0 +1,222 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.jira.config.properties.APKeys;
+import com.atlassian.jira.config.properties.ApplicationProperties;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.attachment.Attachment;
+import ru.andreymarkelov.atlas.plugins.Utils;
+import ru.andreymarkelov.atlas.plugins.UtilsSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Templates of the attachment comment footer. A template is compiled once into literal parts and
+ * tokens: <code>{baseUrl}</code>, <code>{id}</code>, <code>{filename}</code> and <code>{issueKey}</code>.
+ * Templates can be overridden per project. The base URL is cached until {@link #clear()}, which runs
+ * on <code>ClearCacheEvent</code> and when templates are saved; Jira 5.1 publishes no event
+ * of its own when the base URL is edited.
+ */
+public class AttachmentFooterTemplates {
+    public static final String DEFAULT_FILE_TEMPLATE =
+            "[{filename}|{baseUrl}/secure/attachment/{id}/{id}_{filename}|{filename} attached to {issueKey}]^!{baseUrl}/images/icons/link_attachment_7.gif!^\n";
+    public static final String DEFAULT_IMAGE_TEMPLATE =
+            "[!{baseUrl}/secure/thumbnail/{id}/{id}__thumb_{id}.png!|{baseUrl}/secure/attachment/{id}/{id}_{filename}|{filename} attached to {issueKey}] ";
+
+    private static final Set<String> IMAGE_MIME_TYPES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("image/jpeg", "image/png", "image/gif")));
+    private static final String DEFAULT_PROJECT = "*";
+
+    private final ApplicationProperties applicationProperties;
+    private final UtilsSettings settings;
+    private final ConcurrentMap<String, Template[]> templates = new ConcurrentHashMap<String, Template[]>();
+    private volatile String baseUrl;
+
+    public AttachmentFooterTemplates(ApplicationProperties applicationProperties, UtilsSettings settings) {
+        this.applicationProperties = applicationProperties;
+        this.settings = settings;
+    }
+
+    public static boolean isImage(Attachment attachment) {
+        return IMAGE_MIME_TYPES.contains(attachment.getMimetype());
+    }
+
+    /**
+     * Renders the footer: links of files first, then thumbnails of images.
+     */
+    public String render(Issue issue, List<Attachment> attachments) {
+        Template[] projectTemplates = getCompiled(issue.getProjectObject() != null ? issue.getProjectObject().getKey() : null);
+        String url = getBaseUrl();
+
+        int capacity = attachments.size() * (Math.max(projectTemplates[0].getLength(url), projectTemplates[1].getLength(url)) + 64);
+        StringBuilder filesSb = new StringBuilder(capacity);
+        StringBuilder imagesSb = new StringBuilder(capacity);
+        for (Attachment attachment : attachments) {
+            String id = attachment.getId().toString();
+            if (isImage(attachment))
+                projectTemplates[1].appendTo(imagesSb, url, id, attachment.getFilename(), issue.getKey());
+            else
+                projectTemplates[0].appendTo(filesSb, url, id, attachment.getFilename(), issue.getKey());
+        }
+
+        int end = imagesSb.length();
+        while (end > 0 && Character.isWhitespace(imagesSb.charAt(end - 1)))
+            end--;
+        return filesSb.append(imagesSb, 0, end).toString();
+    }
+
+    /**
+     * Returns the file and the image template sources of the project. <code>null</code> project
+     * stands for the default templates. Not overridden templates are <code>null</code>.
+     */
+    public String[] getTemplates(String projectKey) {
+        String prefix = getPrefix(projectKey);
+        return new String[] {settings.getText(prefix + ".file"), settings.getText(prefix + ".image")};
+    }
+
+    public void setTemplates(String projectKey, String fileTemplate, String imageTemplate) {
+        String prefix = getPrefix(projectKey);
+        settings.setText(prefix + ".file", Utils.isValidStr(fileTemplate) ? fileTemplate : null);
+        settings.setText(prefix + ".image", Utils.isValidStr(imageTemplate) ? imageTemplate : null);
+        clear();
+    }
+
+    /**
+     * Drops compiled templates and the cached base URL.
+     */
+    public void clear() {
+        templates.clear();
+        baseUrl = null;
+    }
+
+    private static String getPrefix(String projectKey) {
+        return "attachment.footer." + (Utils.isValidStr(projectKey) ? projectKey : DEFAULT_PROJECT);
+    }
+
+    private String getBaseUrl() {
+        String url = baseUrl;
+        if (url == null) {
+            url = applicationProperties.getString(APKeys.JIRA_BASEURL);
+            baseUrl = url;
+        }
+        return url;
+    }
+
+    private Template[] getCompiled(String projectKey) {
+        String key = projectKey != null ? projectKey : DEFAULT_PROJECT;
+        Template[] compiled = templates.get(key);
+        if (compiled == null) {
+            String[] sources = getTemplates(key);
+            String[] defaults = DEFAULT_PROJECT.equals(key) ? new String[2] : getTemplates(null);
+            compiled = new Template[] {
+                Template.compile(firstValid(sources[0], defaults[0], DEFAULT_FILE_TEMPLATE)),
+                Template.compile(firstValid(sources[1], defaults[1], DEFAULT_IMAGE_TEMPLATE))
+            };
+            templates.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    private static String firstValid(String... values) {
+        for (String value : values) {
+            if (Utils.isValidStr(value))
+                return value;
+        }
+        return null;
+    }
+
+    /**
+     * Compiled template.
+     */
+    static class Template {
+        private static final String[] TOKENS = {"{baseUrl}", "{id}", "{filename}", "{issueKey}"};
+        private static final int BASE_URL = 0;
+        private static final int ID = 1;
+        private static final int FILENAME = 2;
+        private static final int ISSUE_KEY = 3;
+
+        private final String[] literals;
+        private final int[] tokens;
+        private final int literalLength;
+        private final int baseUrlCount;
+
+        private Template(String[] literals, int[] tokens) {
+            this.literals = literals;
+            this.tokens = tokens;
+
+            int length = 0;
+            for (String literal : literals)
+                length += literal.length();
+            int count = 0;
+            for (int token : tokens) {
+                if (token == BASE_URL)
+                    count++;
+            }
+            this.literalLength = length;
+            this.baseUrlCount = count;
+        }
+
+        static Template compile(String source) {
+            List<String> literals = new ArrayList<String>();
+            List<Integer> tokens = new ArrayList<Integer>();
+            StringBuilder literal = new StringBuilder();
+            int pos = 0;
+            while (pos < source.length()) {
+                int token = -1;
+                if (source.charAt(pos) == '{') {
+                    for (int i = 0; i < TOKENS.length; i++) {
+                        if (source.startsWith(TOKENS[i], pos)) {
+                            token = i;
+                            break;
+                        }
+                    }
+                }
+
+                if (token < 0) {
+                    literal.append(source.charAt(pos++));
+                } else {
+                    literals.add(literal.toString());
+                    tokens.add(token);
+                    literal.setLength(0);
+                    pos += TOKENS[token].length();
+                }
+            }
+            literals.add(literal.toString());
+
+            int[] tokenArray = new int[tokens.size()];
+            for (int i = 0; i < tokenArray.length; i++)
+                tokenArray[i] = tokens.get(i);
+            return new Template(literals.toArray(new String[literals.size()]), tokenArray);
+        }
+
+        int getLength(String baseUrl) {
+            return literalLength + baseUrlCount * (baseUrl != null ? baseUrl.length() : 4);
+        }
+
+        void appendTo(StringBuilder sb, String baseUrl, String id, String filename, String issueKey) {
+            for (int i = 0; i < tokens.length; i++) {
+                sb.append(literals[i]);
+                switch (tokens[i]) {
+                    case BASE_URL:
+                        sb.append(baseUrl);
+                        break;
+                    case ID:
+                        sb.append(id);
+                        break;
+                    case FILENAME:
+                        sb.append(filename);
+                        break;
+                    case ISSUE_KEY:
+                        sb.append(issueKey);
+                        break;
+                }
+            }
+            sb.append(literals[tokens.length]);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.comments.Comment;
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import ru.andreymarkelov.atlas.plugins.IssueIdSet;
+import ru.andreymarkelov.atlas.plugins.PluginMetrics;
+import ru.andreymarkelov.atlas.plugins.Utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a rolling window of recent comments (comment time, issue id, comment id) for every user who searched
+ * for their commented issues, so repeated "commented since" searches become range scans in memory.
+ * A window is loaded from jiraaction on the first request and then maintained from issue events:
+ * new and edited comments are put by comment id. Events which may delete a comment of an issue held
+ * in a window reread the comments of the issue on a background thread, a deleted issue is dropped.
+ * Entries older than the largest window requested so far are evicted.
+ */
+public class CommentedIssuesIndex implements InitializingBean, DisposableBean {
+    private static final Log log = LogFactory.getLog(CommentedIssuesIndex.class);
+
+    private final static String SQL = "SELECT UPDATED, ISSUEID, ID FROM jiraaction WHERE ACTIONTYPE = 'comment' AND UPDATED > ? AND UPDATED <= ? AND UPDATEAUTHOR = ?";
+    private final static String ISSUE_SQL = "SELECT UPDATED, ISSUEID, ID, UPDATEAUTHOR FROM jiraaction WHERE ACTIONTYPE = 'comment' AND ISSUEID = ?";
+
+    /**
+     * Windows longer than this are not kept in memory and are read from the database directly.
+     */
+    public static final long MAX_WINDOW = 90L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Windows of users who did not search for this time are dropped.
+     */
+    private static final long IDLE_TIMEOUT = 24L * 60 * 60 * 1000;
+
+    private static final long PRUNE_INTERVAL = 60L * 1000;
+
+    /**
+     * Event of a deleted comment, <code>EventType.ISSUE_COMMENT_DELETED_ID</code> of later Jira versions.
+     * Jira 5.1 publishes an issue update when a comment is deleted.
+     */
+    private static final Long ISSUE_COMMENT_DELETED_ID = 17L;
+
+    private final EventPublisher eventPublisher;
+    private final PluginMetrics.Timer timer;
+    private final ConcurrentMap<String, UserWindow> windows = new ConcurrentHashMap<String, UserWindow>();
+    private final AtomicLong largestWindow = new AtomicLong();
+    private final AtomicLong lastPrune = new AtomicLong();
+
+    /**
+     * Issues waiting for their comments to be read again.
+     */
+    private final ConcurrentMap<Long, Boolean> rereads = new ConcurrentHashMap<Long, Boolean>();
+    private ExecutorService executor;
+
+    public CommentedIssuesIndex(EventPublisher eventPublisher, PluginMetrics pluginMetrics) {
+        this.eventPublisher = eventPublisher;
+        this.timer = pluginMetrics.getTimer(PluginMetrics.LISTENER, "CommentedIssuesIndex");
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "utils-commented-issues");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+        executor.shutdownNow();
+        windows.clear();
+    }
+
+    /**
+     * Returns ids of issues commented by the user after the time.
+     */
+    public IssueIdSet getCommentedIssues(String userName, long since) throws SQLException {
+        long now = System.currentTimeMillis();
+        long window = now - since;
+        if (window > MAX_WINDOW) {
+            IssueIdSet issueIds = new IssueIdSet();
+            for (long[] entry : load(userName, since, now))
+                issueIds.add(entry[1]);
+            return issueIds;
+        }
+
+        long largest = largestWindow.get();
+        while (window > largest && !largestWindow.compareAndSet(largest, window))
+            largest = largestWindow.get();
+        prune(now);
+
+        UserWindow userWindow = windows.get(userName);
+        if (userWindow == null) {
+            UserWindow created = new UserWindow(now);
+            userWindow = windows.putIfAbsent(userName, created);
+            if (userWindow == null)
+                userWindow = created;
+        }
+
+        while (true) {
+            long horizon = userWindow.touch();
+            if (since >= horizon)
+                break;
+            //--> events are only recorded after the window was registered, earlier comments come from the database
+            if (userWindow.merge(load(userName, since, horizon), since, horizon))
+                break;
+        }
+        return userWindow.getIssues(since, now - largestWindow.get());
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onIssueEvent(IssueEvent issueEvent) {
+        long start = System.nanoTime();
+        try {
+            handleIssueEvent(issueEvent);
+        } finally {
+            timer.record(start);
+        }
+    }
+
+    private void handleIssueEvent(IssueEvent issueEvent) {
+        Issue issue = issueEvent.getIssue();
+        if (issue == null || issue.getId() == null || windows.isEmpty())
+            return;
+
+        Long eventTypeId = issueEvent.getEventTypeId();
+        Comment comment = issueEvent.getComment();
+        if (comment != null && comment.getId() != null
+                && (EventType.ISSUE_COMMENTED_ID.equals(eventTypeId) || EventType.ISSUE_COMMENT_EDITED_ID.equals(eventTypeId))) {
+            String author = comment.getUpdateAuthor() != null ? comment.getUpdateAuthor() : comment.getAuthor();
+            long time = comment.getUpdated() != null ? comment.getUpdated().getTime() : issueEvent.getTime().getTime();
+            for (Map.Entry<String, UserWindow> window : windows.entrySet()) {
+                window.getValue().removeComment(comment.getId());
+                if (window.getKey().equals(author))
+                    window.getValue().add(new long[] {time, issue.getId(), comment.getId()});
+            }
+            return;
+        }
+
+        boolean deleted = EventType.ISSUE_DELETED_ID.equals(eventTypeId);
+        if (!deleted && !EventType.ISSUE_UPDATED_ID.equals(eventTypeId) && !EventType.ISSUE_MOVED_ID.equals(eventTypeId)
+                && !ISSUE_COMMENT_DELETED_ID.equals(eventTypeId))
+            return;
+        if (!hasIssue(issue.getId()))
+            return;
+
+        if (deleted) {
+            for (UserWindow window : windows.values())
+                window.replaceIssue(issue.getId(), null, Long.MAX_VALUE);
+        } else {
+            scheduleReread(issue.getId());
+        }
+    }
+
+    private boolean hasIssue(Long issueId) {
+        for (UserWindow window : windows.values()) {
+            if (window.hasIssue(issueId))
+                return true;
+        }
+        return false;
+    }
+
+    private void scheduleReread(final Long issueId) {
+        if (rereads.putIfAbsent(issueId, Boolean.TRUE) != null)
+            return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rereads.remove(issueId);
+                    reread(issueId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rereads.remove(issueId);
+        }
+    }
+
+    /**
+     * Replaces the comments of the issue in all windows by the ones in the database. Comments put by events
+     * since the read started are kept.
+     */
+    private void reread(Long issueId) {
+        long started = System.currentTimeMillis();
+        Map<String, List<long[]>> byAuthor = new HashMap<String, List<long[]>>();
+        try {
+            loadIssue(issueId, byAuthor);
+        } catch (SQLException e) {
+            //--> the window may keep a deleted comment of the issue until it is dropped
+            log.warn("CommentedIssuesIndex::reread - Cannot read comments of the issue " + issueId, e);
+            return;
+        }
+        for (Map.Entry<String, UserWindow> window : windows.entrySet())
+            window.getValue().replaceIssue(issueId, byAuthor.get(window.getKey()), started);
+    }
+
+    private void prune(long now) {
+        long last = lastPrune.get();
+        if (now - last < PRUNE_INTERVAL || !lastPrune.compareAndSet(last, now))
+            return;
+
+        for (Iterator<UserWindow> it = windows.values().iterator(); it.hasNext();) {
+            if (now - it.next().lastAccess > IDLE_TIMEOUT)
+                it.remove();
+        }
+    }
+
+    /**
+     * Reads comments of the user in the <code>(from, to]</code> interval as (time, issue id, comment id).
+     */
+    private List<long[]> load(String userName, long from, long to) throws SQLException {
+        List<long[]> entries = new ArrayList<long[]>();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet rs = null;
+        try {
+            conn = getConnection();
+            pStmt = conn.prepareStatement(SQL);
+            pStmt.setTimestamp(1, new Timestamp(from));
+            pStmt.setTimestamp(2, new Timestamp(to));
+            pStmt.setString(3, userName);
+            rs = pStmt.executeQuery();
+            while (rs.next())
+                entries.add(new long[] {rs.getTimestamp(1).getTime(), rs.getLong(2), rs.getLong(3)});
+        } finally {
+            Utils.closeResultSet(rs);
+            Utils.closeStaement(pStmt);
+            Utils.closeConnection(conn);
+        }
+        return entries;
+    }
+
+    /**
+     * Reads all comments of the issue by author.
+     */
+    private void loadIssue(Long issueId, Map<String, List<long[]>> byAuthor) throws SQLException {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet rs = null;
+        try {
+            conn = getConnection();
+            pStmt = conn.prepareStatement(ISSUE_SQL);
+            pStmt.setLong(1, issueId);
+            rs = pStmt.executeQuery();
+            while (rs.next()) {
+                String author = rs.getString(4);
+                List<long[]> entries = byAuthor.get(author);
+                if (entries == null) {
+                    entries = new ArrayList<long[]>();
+                    byAuthor.put(author, entries);
+                }
+                entries.add(new long[] {rs.getTimestamp(1).getTime(), rs.getLong(2), rs.getLong(3)});
+            }
+        } finally {
+            Utils.closeResultSet(rs);
+            Utils.closeStaement(pStmt);
+            Utils.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Returns a connection to the Jira database, which is closed after use. Benchmarks override it
+     * to read a copy of the tables.
+     */
+    protected Connection getConnection() throws SQLException {
+        return new DefaultOfBizConnectionFactory().getConnection();
+    }
+
+    private static final Comparator<long[]> ENTRY_ORDER = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] o1, long[] o2) {
+            if (o1[0] != o2[0])
+                return o1[0] < o2[0] ? -1 : 1;
+            return o1[2] < o2[2] ? -1 : (o1[2] == o2[2] ? 0 : 1);
+        }
+    };
+
+    /**
+     * Comments of a single user ordered by time. Covers all comments made after <code>horizon</code>.
+     * The database is never read under the monitor of a window.
+     */
+    private static final class UserWindow {
+        private final TreeSet<long[]> entries = new TreeSet<long[]>(ENTRY_ORDER);
+        private final Map<Long, long[]> byComment = new HashMap<Long, long[]>();
+        private final Map<Long, Set<Long>> byIssue = new HashMap<Long, Set<Long>>();
+        private long horizon;
+        private volatile long lastAccess;
+
+        private UserWindow(long created) {
+            this.horizon = created;
+            this.lastAccess = created;
+        }
+
+        /**
+         * Marks the window as used. Returns the horizon.
+         */
+        private synchronized long touch() {
+            lastAccess = System.currentTimeMillis();
+            return horizon;
+        }
+
+        /**
+         * Adds comments read for the <code>(since, readHorizon]</code> interval. Returns <code>false</code>
+         * if the horizon moved past <code>readHorizon</code> meanwhile and the interval must be read again.
+         */
+        private synchronized boolean merge(List<long[]> loaded, long since, long readHorizon) {
+            if (horizon > readHorizon)
+                return false;
+            for (long[] entry : loaded) {
+                //--> events received during the read are newer
+                if (!byComment.containsKey(entry[2]))
+                    put(entry);
+            }
+            horizon = Math.min(horizon, since);
+            return true;
+        }
+
+        private synchronized void add(long[] entry) {
+            if (entry[0] > horizon)
+                put(entry);
+        }
+
+        private synchronized void removeComment(long commentId) {
+            long[] entry = byComment.remove(commentId);
+            if (entry == null)
+                return;
+            entries.remove(entry);
+            Set<Long> commentIds = byIssue.get(entry[1]);
+            if (commentIds != null) {
+                commentIds.remove(commentId);
+                if (commentIds.isEmpty())
+                    byIssue.remove(entry[1]);
+            }
+        }
+
+        private synchronized boolean hasIssue(long issueId) {
+            return byIssue.containsKey(issueId);
+        }
+
+        /**
+         * Replaces the comments of the issue by the given ones, <code>null</code> removes them.
+         * Comments made at <code>keepFrom</code> or later are kept.
+         */
+        private synchronized void replaceIssue(long issueId, List<long[]> comments, long keepFrom) {
+            Set<Long> commentIds = byIssue.get(issueId);
+            if (commentIds != null) {
+                for (Long commentId : new ArrayList<Long>(commentIds)) {
+                    if (byComment.get(commentId)[0] < keepFrom)
+                        removeComment(commentId);
+                }
+            }
+            if (comments != null) {
+                for (long[] entry : comments) {
+                    if (entry[0] > horizon)
+                        put(entry);
+                }
+            }
+        }
+
+        private synchronized IssueIdSet getIssues(long since, long cutoff) {
+            if (cutoff > horizon) {
+                for (long[] entry : new ArrayList<long[]>(entries.headSet(new long[] {cutoff, 0, Long.MAX_VALUE}, true)))
+                    removeComment(entry[2]);
+                horizon = cutoff;
+            }
+
+            IssueIdSet issueIds = new IssueIdSet();
+            for (long[] entry : entries.tailSet(new long[] {since, 0, Long.MAX_VALUE}, false))
+                issueIds.add(entry[1]);
+            return issueIds;
+        }
+
+        private void put(long[] entry) {
+            removeComment(entry[2]);
+            entries.add(entry);
+            byComment.put(entry[2], entry);
+            Set<Long> commentIds = byIssue.get(entry[1]);
+            if (commentIds == null) {
+                commentIds = new HashSet<Long>(4);
+                byIssue.put(entry[1], commentIds);
+            }
+            commentIds.add(entry[2]);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.core.util.InvalidDurationException;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.config.properties.APKeys;
+import com.atlassian.jira.config.properties.ApplicationProperties;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.util.JiraDurationUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Duration parser with a bounded cache of parsed values, keyed by the string and the locale.
+ * Invalid strings are cached too. The cache is dropped when the time tracking settings
+ * (hours per day, days per week, default unit) change or on <code>ClearCacheEvent</code>.
+ */
+public class DurationParser implements InitializingBean, DisposableBean {
+    private static final int MAX_ENTRIES = 2000;
+    private static final long SETTINGS_CHECK_INTERVAL = 30000;
+    private static final long INVALID = Long.MIN_VALUE;
+
+    private final EventPublisher eventPublisher;
+    private final ApplicationProperties applicationProperties;
+    private final JiraAuthenticationContext authenticationContext;
+    private final JiraDurationUtils jiraDurationUtils;
+
+    private final Map<String, Long> cache = new LinkedHashMap<String, Long>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private String settings;
+    private long settingsChecked;
+
+    public DurationParser(
+            EventPublisher eventPublisher,
+            ApplicationProperties applicationProperties,
+            JiraAuthenticationContext authenticationContext,
+            JiraDurationUtils jiraDurationUtils) {
+        this.eventPublisher = eventPublisher;
+        this.applicationProperties = applicationProperties;
+        this.authenticationContext = authenticationContext;
+        this.jiraDurationUtils = jiraDurationUtils;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onClearCache(ClearCacheEvent clearCacheEvent) {
+        clear();
+    }
+
+    /**
+     * Parses the duration in the locale of the current user. Returns seconds.
+     */
+    public long parseDuration(String duration) throws InvalidDurationException {
+        return parseDuration(duration, authenticationContext.getLocale());
+    }
+
+    /**
+     * Parses the duration. Returns seconds.
+     */
+    public long parseDuration(String duration, Locale locale) throws InvalidDurationException {
+        if (duration == null)
+            throw new InvalidDurationException("Duration is not set");
+
+        String key = locale + "\n" + duration;
+        Long seconds;
+        synchronized (cache) {
+            checkSettings();
+            seconds = cache.get(key);
+        }
+
+        if (seconds == null) {
+            try {
+                seconds = jiraDurationUtils.parseDuration(duration, locale);
+            } catch (InvalidDurationException e) {
+                seconds = INVALID;
+            }
+            synchronized (cache) {
+                cache.put(key, seconds);
+            }
+        }
+
+        if (seconds == INVALID)
+            throw new InvalidDurationException("Invalid duration: " + duration);
+        return seconds;
+    }
+
+    /**
+     * Returns the duration written so that it parses in the default locale of Jira to the same value,
+     * e.g. to store a value entered by a user with another locale.
+     */
+    public String toDefaultLocale(String duration, Locale locale) throws InvalidDurationException {
+        long seconds = parseDuration(duration, locale);
+        Locale defaultLocale = getDefaultLocale();
+        try {
+            if (parseDuration(duration, defaultLocale) == seconds)
+                return duration;
+        } catch (InvalidDurationException e) {
+            //--> written in the user locale
+        }
+        return jiraDurationUtils.getShortFormattedDuration(seconds, defaultLocale);
+    }
+
+    /**
+     * Parses a stored duration. Values are stored in the default locale of Jira; values stored
+     * by earlier versions in the locale of the editing user are tried in the current user locale.
+     */
+    public long parseStoredDuration(String duration) throws InvalidDurationException {
+        try {
+            return parseDuration(duration, getDefaultLocale());
+        } catch (InvalidDurationException e) {
+            return parseDuration(duration);
+        }
+    }
+
+    /**
+     * Returns the default locale of Jira, used when no user is in context (indexing, sorting).
+     */
+    public Locale getDefaultLocale() {
+        return applicationProperties.getDefaultLocale();
+    }
+
+    public boolean isValid(String duration) {
+        try {
+            parseDuration(duration);
+            return true;
+        } catch (InvalidDurationException e) {
+            return false;
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            settingsChecked = 0;
+        }
+    }
+
+    private void checkSettings() {
+        long now = System.currentTimeMillis();
+        if (now - settingsChecked < SETTINGS_CHECK_INTERVAL)
+            return;
+
+        settingsChecked = now;
+        String current = applicationProperties.getDefaultBackedString(APKeys.JIRA_TIMETRACKING_HOURS_PER_DAY) + "/" +
+                applicationProperties.getDefaultBackedString(APKeys.JIRA_TIMETRACKING_DAYS_PER_WEEK) + "/" +
+                applicationProperties.getDefaultBackedString(APKeys.JIRA_TIMETRACKING_DEFAULT_UNIT);
+        if (!current.equals(settings)) {
+            cache.clear();
+            settings = current;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+
+import ru.andreymarkelov.atlas.plugins.Utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Links of issues with the project, type and status of the linked issues, read by one query per issue
+ * so link checks do not load the linked issues. Snapshots are not cached: Jira publishes no link events,
+ * so every check and clone reads the current links.
+ */
+public class IssueLinkSnapshots {
+    private final static String SQL =
+        "SELECT 1, L.LINKTYPE, I.ID, I.pkey, I.PROJECT, I.issuetype, I.issuestatus FROM issuelink L " +
+        "INNER JOIN jiraissue I ON I.ID = L.SOURCE WHERE L.DESTINATION = ? " +
+        "UNION ALL " +
+        "SELECT 0, L.LINKTYPE, I.ID, I.pkey, I.PROJECT, I.issuetype, I.issuestatus FROM issuelink L " +
+        "INNER JOIN jiraissue I ON I.ID = L.DESTINATION WHERE L.SOURCE = ?";
+
+    /**
+     * Returns the current links of the issue.
+     */
+    public Snapshot get(Long issueId) throws SQLException {
+        return load(issueId);
+    }
+
+    private static Snapshot load(Long issueId) throws SQLException {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet rs = null;
+        try {
+            conn = new DefaultOfBizConnectionFactory().getConnection();
+            pStmt = conn.prepareStatement(SQL);
+            pStmt.setLong(1, issueId);
+            pStmt.setLong(2, issueId);
+            rs = pStmt.executeQuery();
+            while (rs.next()) {
+                rows.add(new Object[] {
+                    rs.getInt(1) == 1, rs.getLong(2), rs.getLong(3), rs.getString(4), rs.getLong(5), rs.getString(6), rs.getString(7)
+                });
+            }
+        } finally {
+            Utils.closeResultSet(rs);
+            Utils.closeStaement(pStmt);
+            Utils.closeConnection(conn);
+        }
+        return new Snapshot(rows);
+    }
+
+    /**
+     * Links of a single issue. The i-th link is described by the i-th element of every array.
+     */
+    public static final class Snapshot {
+        private final boolean[] inward;
+        private final long[] linkTypeIds;
+        private final long[] peerIds;
+        private final String[] peerKeys;
+        private final long[] peerProjectIds;
+        private final String[] peerTypeIds;
+        private final String[] peerStatusIds;
+
+        private Snapshot(List<Object[]> rows) {
+            int size = rows.size();
+            this.inward = new boolean[size];
+            this.linkTypeIds = new long[size];
+            this.peerIds = new long[size];
+            this.peerKeys = new String[size];
+            this.peerProjectIds = new long[size];
+            this.peerTypeIds = new String[size];
+            this.peerStatusIds = new String[size];
+            for (int i = 0; i < size; i++) {
+                Object[] row = rows.get(i);
+                inward[i] = (Boolean) row[0];
+                linkTypeIds[i] = (Long) row[1];
+                peerIds[i] = (Long) row[2];
+                peerKeys[i] = (String) row[3];
+                peerProjectIds[i] = (Long) row[4];
+                peerTypeIds[i] = row[5] != null ? ((String) row[5]).intern() : null;
+                peerStatusIds[i] = row[6] != null ? ((String) row[6]).intern() : null;
+            }
+        }
+
+        public int size() {
+            return linkTypeIds.length;
+        }
+
+        /**
+         * Returns <code>true</code> if the i-th link points to the issue, i.e. the peer is the source.
+         */
+        public boolean isInward(int i) {
+            return inward[i];
+        }
+
+        public long getLinkTypeId(int i) {
+            return linkTypeIds[i];
+        }
+
+        public long getPeerId(int i) {
+            return peerIds[i];
+        }
+
+        public String getPeerKey(int i) {
+            return peerKeys[i];
+        }
+
+        public long getPeerProjectId(int i) {
+            return peerProjectIds[i];
+        }
+
+        public String getPeerTypeId(int i) {
+            return peerTypeIds[i];
+        }
+
+        public String getPeerStatusId(int i) {
+            return peerStatusIds[i];
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.jira.web.ExecutingHttpRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Values computed once per HTTP request, e.g. by conditions checked for every transition
+ * of the viewed issue. Nothing is kept outside of HTTP requests. Values may count issues,
+ * so all of them are dropped when an issue changes in the request, see {@link #clear()}.
+ */
+public final class RequestMemo {
+    private static final String ATTRIBUTE = RequestMemo.class.getName();
+
+    private RequestMemo() {
+    }
+
+    /**
+     * Builds the key of a value from the owner type and the values it depends on.
+     */
+    public static String key(Class<?> owner, Object... parts) {
+        StringBuilder sb = new StringBuilder(owner.getName());
+        for (Object part : parts)
+            sb.append('|').append(part);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the value computed in the current request or <code>null</code>.
+     */
+    public static Object get(String key) {
+        Map<String, Object> values = getValues(false);
+        return values != null ? values.get(key) : null;
+    }
+
+    public static void put(String key, Object value) {
+        Map<String, Object> values = getValues(true);
+        if (values != null)
+            values.put(key, value);
+    }
+
+    /**
+     * Drops all values computed in the current request.
+     */
+    public static void clear() {
+        HttpServletRequest request = ExecutingHttpRequest.get();
+        if (request != null)
+            request.removeAttribute(ATTRIBUTE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getValues(boolean create) {
+        HttpServletRequest request = ExecutingHttpRequest.get();
+        if (request == null)
+            return null;
+        Map<String, Object> values = (Map<String, Object>) request.getAttribute(ATTRIBUTE);
+        if (values == null && create) {
+            values = new HashMap<String, Object>();
+            request.setAttribute(ATTRIBUTE, values);
+        }
+        return values;
+    }
+}
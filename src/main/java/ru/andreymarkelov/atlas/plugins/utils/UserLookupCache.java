@@ -0,0 +1,115 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.crowd.event.user.UserCreatedEvent;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserUpdatedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.user.util.UserManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of user lookups by name. Unknown names are cached for a short time.
+ * Entries are dropped on Crowd user events and on <code>ClearCacheEvent</code>.
+ */
+public class UserLookupCache implements InitializingBean, DisposableBean {
+    private static final int MAX_ENTRIES = 5000;
+    private static final long NOT_FOUND_TTL = 5 * 60 * 1000;
+
+    private final EventPublisher eventPublisher;
+    private final UserManager userManager;
+    private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public UserLookupCache(EventPublisher eventPublisher, UserManager userManager) {
+        this.eventPublisher = eventPublisher;
+        this.userManager = userManager;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+    }
+
+    /**
+     * Returns the user or <code>null</code> if there is no such user.
+     */
+    public User getUser(String userName) {
+        if (userName == null)
+            return null;
+
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(userName);
+        }
+        if (entry != null && (entry.user != null || entry.expires > System.currentTimeMillis()))
+            return entry.user;
+
+        User user = userManager.getUser(userName);
+        synchronized (cache) {
+            cache.put(userName, new Entry(user, user != null ? Long.MAX_VALUE : System.currentTimeMillis() + NOT_FOUND_TTL));
+        }
+        return user;
+    }
+
+    public void remove(String userName) {
+        synchronized (cache) {
+            cache.remove(userName);
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onUserCreated(UserCreatedEvent event) {
+        remove(event.getUser().getName());
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onUserUpdated(UserUpdatedEvent event) {
+        remove(event.getUser().getName());
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onUserDeleted(UserDeletedEvent event) {
+        remove(event.getUsername());
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onClearCache(ClearCacheEvent event) {
+        clear();
+    }
+
+    private static class Entry {
+        private final User user;
+        private final long expires;
+
+        private Entry(User user, long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+}
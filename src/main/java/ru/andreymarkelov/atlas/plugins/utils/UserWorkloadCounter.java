@@ -0,0 +1,362 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import ru.andreymarkelov.atlas.plugins.Utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps unresolved issues by status for every assignee asked about. The issues of a user are read
+ * from jiraissue on the first request and then maintained from issue events, so comparing
+ * candidates is a memory lookup. Users are reloaded periodically to repair missed events.
+ * Workloads are kept by lower case user names.
+ */
+public class UserWorkloadCounter implements InitializingBean, DisposableBean {
+    private static final Log log = LogFactory.getLog(UserWorkloadCounter.class);
+
+    private final static String SQL = "SELECT ID, ISSUESTATUS FROM jiraissue WHERE ASSIGNEE = ? AND RESOLUTION IS NULL";
+
+    /**
+     * Workloads older than this are reloaded from the database.
+     */
+    private static final long RELOAD_INTERVAL = 30L * 60 * 1000;
+
+    /**
+     * Workloads of users who were not asked about for this time are dropped.
+     */
+    private static final long IDLE_TIMEOUT = 24L * 60 * 60 * 1000;
+
+    private static final long PRUNE_INTERVAL = 60L * 1000;
+
+    /**
+     * Time to wait for a workload loaded by another thread.
+     */
+    private static final long LOAD_WAIT = 10L * 1000;
+
+    private final EventPublisher eventPublisher;
+    private final ConcurrentMap<String, Workload> workloads = new ConcurrentHashMap<String, Workload>();
+
+    /**
+     * Assignees of the tracked issues. Guarded by <code>this</code> together with the workloads contents.
+     */
+    private final Map<Long, String> assignees = new HashMap<Long, String>();
+
+    /**
+     * Issues changed by events while workloads are loaded, by user name. The value is the status
+     * of an unresolved issue assigned to the user or <code>null</code> for any other issue.
+     * Guarded by <code>this</code>.
+     */
+    private final Map<String, Map<Long, String>> loading = new HashMap<String, Map<Long, String>>();
+    private final AtomicLong lastPrune = new AtomicLong();
+
+    public UserWorkloadCounter(EventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+        clear();
+    }
+
+    /**
+     * Returns the number of unresolved issues assigned to the user or <code>-1</code> if it cannot be counted.
+     */
+    public int getOpenIssues(String userName) {
+        Workload workload = getWorkload(userName);
+        return workload != null ? workload.getTotal() : -1;
+    }
+
+    /**
+     * Returns the number of unresolved issues in the status assigned to the user or <code>-1</code> if it cannot be counted.
+     */
+    public int getOpenIssues(String userName, String statusId) {
+        Workload workload = getWorkload(userName);
+        return workload != null ? workload.getCount(statusId) : -1;
+    }
+
+    /**
+     * Returns the user with the fewest unresolved issues. Users that cannot be counted are chosen last.
+     */
+    public User getLeastLoaded(Collection<User> users) {
+        return getLeastLoaded(users, null, -1);
+    }
+
+    /**
+     * Returns the user with the fewest unresolved issues skipping users who have <code>limit</code> or more
+     * issues in the status. Returns <code>null</code> if there is no such user.
+     */
+    public User getLeastLoaded(Collection<User> users, String statusId, int limit) {
+        User leastLoaded = null;
+        long leastCount = Long.MAX_VALUE;
+        for (User user : users) {
+            Workload workload = getWorkload(user.getName());
+            long count = workload != null ? workload.getTotal() : Long.MAX_VALUE - 1;
+            if (statusId != null && limit >= 0 && (workload == null || workload.getCount(statusId) >= limit))
+                continue;
+            if (leastLoaded == null || count < leastCount) {
+                leastLoaded = user;
+                leastCount = count;
+            }
+        }
+        return leastLoaded;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            workloads.clear();
+            assignees.clear();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onIssueEvent(IssueEvent issueEvent) {
+        //--> events are published in the request changing the issue, e.g. by every issue of a bulk transition
+        RequestMemo.clear();
+
+        Issue issue = issueEvent.getIssue();
+        if (issue == null || issue.getId() == null)
+            return;
+
+        Long issueId = issue.getId();
+        boolean deleted = EventType.ISSUE_DELETED_ID.equals(issueEvent.getEventTypeId());
+        String assignee = normalize(issue.getAssigneeId());
+        boolean counted = !deleted && assignee != null && issue.getResolutionObject() == null && issue.getStatusObject() != null;
+        synchronized (this) {
+            if (workloads.isEmpty() && loading.isEmpty())
+                return;
+
+            //--> replayed when the workload is loaded, the database may have been read before the event
+            for (Map.Entry<String, Map<Long, String>> user : loading.entrySet())
+                user.getValue().put(issueId, counted && user.getKey().equals(assignee) ? issue.getStatusObject().getId() : null);
+
+            String previous = assignees.remove(issueId);
+            if (previous != null) {
+                Workload workload = workloads.get(previous);
+                if (workload != null)
+                    workload.remove(issueId);
+            }
+
+            if (!counted)
+                return;
+            Workload workload = workloads.get(assignee);
+            if (workload != null) {
+                workload.put(issueId, issue.getStatusObject().getId());
+                assignees.put(issueId, assignee);
+            }
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onClearCache(ClearCacheEvent event) {
+        clear();
+    }
+
+    /**
+     * Returns the workload of the user loading it if needed. While a workload is reloaded, the previous one
+     * is returned. A workload loaded for the first time is loaded by a single thread, the others wait for it.
+     */
+    private Workload getWorkload(String userName) {
+        userName = normalize(userName);
+        long now = System.currentTimeMillis();
+        prune(now);
+
+        Workload workload = workloads.get(userName);
+        if (workload != null && now - workload.loaded < RELOAD_INTERVAL) {
+            workload.lastAccess = now;
+            return workload;
+        }
+
+        Map<Long, String> changes;
+        synchronized (this) {
+            long deadline = now + LOAD_WAIT;
+            while (true) {
+                workload = workloads.get(userName);
+                boolean reloading = loading.containsKey(userName);
+                if (workload != null && (reloading || now - workload.loaded < RELOAD_INTERVAL)) {
+                    workload.lastAccess = now;
+                    return workload;
+                }
+                if (!reloading)
+                    break;
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    return null;
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            changes = new HashMap<Long, String>();
+            loading.put(userName, changes);
+        }
+
+        Map<Long, String> issues = null;
+        try {
+            issues = load(userName);
+        } catch (SQLException e) {
+            log.error("UserWorkloadCounter::getWorkload - Cannot load issues of " + userName, e);
+        } finally {
+            synchronized (this) {
+                loading.remove(userName);
+                if (issues != null) {
+                    for (Map.Entry<Long, String> change : changes.entrySet()) {
+                        if (change.getValue() != null)
+                            issues.put(change.getKey(), change.getValue());
+                        else
+                            issues.remove(change.getKey());
+                    }
+                    workload = put(userName, issues, now);
+                } else {
+                    workload = workloads.get(userName);
+                }
+                notifyAll();
+            }
+        }
+        return workload;
+    }
+
+    /**
+     * Replaces the workload of the user. Must be called under the lock.
+     */
+    private Workload put(String userName, Map<Long, String> issues, long now) {
+        Workload loaded = new Workload(now);
+        Workload stale = workloads.put(userName, loaded);
+        if (stale != null) {
+            for (Long issueId : stale.issues.keySet())
+                assignees.remove(issueId);
+        }
+        for (Map.Entry<Long, String> entry : issues.entrySet()) {
+            String previous = assignees.put(entry.getKey(), userName);
+            if (previous != null && !previous.equals(userName)) {
+                Workload other = workloads.get(previous);
+                if (other != null)
+                    other.remove(entry.getKey());
+            }
+            loaded.put(entry.getKey(), entry.getValue());
+        }
+        return loaded;
+    }
+
+    private void prune(long now) {
+        long last = lastPrune.get();
+        if (now - last < PRUNE_INTERVAL || !lastPrune.compareAndSet(last, now))
+            return;
+
+        synchronized (this) {
+            for (Iterator<Workload> it = workloads.values().iterator(); it.hasNext();) {
+                Workload workload = it.next();
+                if (now - workload.lastAccess > IDLE_TIMEOUT) {
+                    for (Long issueId : workload.issues.keySet())
+                        assignees.remove(issueId);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Jira compares user names ignoring case and keeps them in lower case in jiraissue,
+     * callers may pass them in any case.
+     */
+    private static String normalize(String userName) {
+        return userName != null ? userName.toLowerCase(Locale.ENGLISH) : null;
+    }
+
+    /**
+     * Reads unresolved issues of the user with their statuses. The user name is normalized.
+     */
+    private static Map<Long, String> load(String userName) throws SQLException {
+        Map<Long, String> issues = new HashMap<Long, String>();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet rs = null;
+        try {
+            conn = new DefaultOfBizConnectionFactory().getConnection();
+            pStmt = conn.prepareStatement(SQL);
+            pStmt.setString(1, userName);
+            rs = pStmt.executeQuery();
+            while (rs.next())
+                issues.put(rs.getLong(1), rs.getString(2));
+        } finally {
+            Utils.closeResultSet(rs);
+            Utils.closeStaement(pStmt);
+            Utils.closeConnection(conn);
+        }
+        return issues;
+    }
+
+    /**
+     * Unresolved issues of a single user with counts by status.
+     */
+    private static final class Workload {
+        private final Map<Long, String> issues = new HashMap<Long, String>();
+        private final Map<String, Integer> counts = new HashMap<String, Integer>();
+        private final long loaded;
+        private volatile long lastAccess;
+
+        private Workload(long loaded) {
+            this.loaded = loaded;
+            this.lastAccess = loaded;
+        }
+
+        private synchronized void put(Long issueId, String statusId) {
+            remove(issueId);
+            issues.put(issueId, statusId);
+            Integer count = counts.get(statusId);
+            counts.put(statusId, count != null ? count + 1 : 1);
+        }
+
+        private synchronized void remove(Long issueId) {
+            String statusId = issues.remove(issueId);
+            if (statusId == null)
+                return;
+            Integer count = counts.get(statusId);
+            if (count == null || count <= 1)
+                counts.remove(statusId);
+            else
+                counts.put(statusId, count - 1);
+        }
+
+        private synchronized int getTotal() {
+            return issues.size();
+        }
+
+        private synchronized int getCount(String statusId) {
+            Integer count = counts.get(statusId);
+            return count != null ? count : 0;
+        }
+    }
+}
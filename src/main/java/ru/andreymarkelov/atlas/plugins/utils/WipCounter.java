@@ -0,0 +1,410 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.bc.project.component.ProjectComponent;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.ofbiz.DefaultOfBizConnectionFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import ru.andreymarkelov.atlas.plugins.Utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of unresolved issues in a status by project, component and assignee. The issues of a status
+ * are read from the database when the status is first asked about and then maintained from issue events,
+ * so limits of teams and projects need no search. Statuses are reloaded periodically to repair missed events.
+ * Statuses with too many unresolved issues are not kept and cannot be counted.
+ */
+public class WipCounter implements InitializingBean, DisposableBean {
+    private static final Log log = LogFactory.getLog(WipCounter.class);
+
+    private final static String ISSUES_SQL = "SELECT ID, PROJECT, ASSIGNEE FROM jiraissue WHERE ISSUESTATUS = ? AND RESOLUTION IS NULL";
+    private final static String COMPONENTS_SQL =
+        "SELECT NA.SOURCE_NODE_ID, NA.SINK_NODE_ID FROM nodeassociation NA " +
+        "INNER JOIN jiraissue I ON I.ID = NA.SOURCE_NODE_ID " +
+        "WHERE NA.ASSOCIATION_TYPE = 'IssueComponent' AND NA.SOURCE_NODE_ENTITY = 'Issue' AND I.ISSUESTATUS = ? AND I.RESOLUTION IS NULL";
+
+    /**
+     * Statuses older than this are reloaded from the database.
+     */
+    private static final long RELOAD_INTERVAL = 30L * 60 * 1000;
+
+    /**
+     * Statuses which were not asked about for this time are dropped.
+     */
+    private static final long IDLE_TIMEOUT = 24L * 60 * 60 * 1000;
+
+    private static final long PRUNE_INTERVAL = 60L * 1000;
+
+    /**
+     * Maximum number of issues kept for a status.
+     */
+    private static final int MAX_ISSUES = 50000;
+
+    /**
+     * Time to wait for a status loaded by another thread.
+     */
+    private static final long LOAD_WAIT = 10L * 1000;
+
+    private static final long[] NO_COMPONENTS = new long[0];
+
+    /**
+     * Marks issues which left a status while it was loaded.
+     */
+    private static final Entry REMOVED = new Entry(null, null, NO_COMPONENTS);
+
+    private final EventPublisher eventPublisher;
+
+    /**
+     * Counts by status id. Guarded by <code>this</code>.
+     */
+    private final Map<String, StatusCounts> statuses = new HashMap<String, StatusCounts>();
+
+    /**
+     * Issues changed by events while their statuses are loaded, by status id. Guarded by <code>this</code>.
+     */
+    private final Map<String, Map<Long, Entry>> loading = new HashMap<String, Map<Long, Entry>>();
+    private final AtomicLong lastPrune = new AtomicLong();
+
+    public WipCounter(EventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+        clear();
+    }
+
+    /**
+     * Returns the number of issues of the project in the status or <code>-1</code> if it cannot be counted.
+     */
+    public int getProjectCount(String statusId, Long projectId) {
+        StatusCounts counts = getCounts(statusId);
+        if (counts == null)
+            return -1;
+        synchronized (this) {
+            return get(counts.byProject, projectId);
+        }
+    }
+
+    /**
+     * Returns the number of issues of the component in the status or <code>-1</code> if it cannot be counted.
+     */
+    public int getComponentCount(String statusId, Long componentId) {
+        StatusCounts counts = getCounts(statusId);
+        if (counts == null)
+            return -1;
+        synchronized (this) {
+            return get(counts.byComponent, componentId);
+        }
+    }
+
+    /**
+     * Returns the number of issues in the status assigned to any of the users or <code>-1</code> if it cannot be counted.
+     * User names are compared ignoring case.
+     */
+    public int getAssigneesCount(String statusId, Collection<String> userNames) {
+        StatusCounts counts = getCounts(statusId);
+        if (counts == null)
+            return -1;
+        int total = 0;
+        synchronized (this) {
+            for (String userName : userNames)
+                total += get(counts.byAssignee, normalize(userName));
+        }
+        return total;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            statuses.clear();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onIssueEvent(IssueEvent issueEvent) {
+        Issue issue = issueEvent.getIssue();
+        if (issue == null || issue.getId() == null)
+            return;
+
+        boolean counted = !EventType.ISSUE_DELETED_ID.equals(issueEvent.getEventTypeId()) && issue.getResolutionObject() == null;
+        String statusId = counted && issue.getStatusObject() != null ? issue.getStatusObject().getId() : null;
+        synchronized (this) {
+            if (statuses.isEmpty() && loading.isEmpty())
+                return;
+            Entry entry = null;
+            if (statusId != null && (statuses.containsKey(statusId) || loading.containsKey(statusId))) {
+                Long projectId = issue.getProjectObject() != null ? issue.getProjectObject().getId() : null;
+                entry = new Entry(projectId, normalize(issue.getAssigneeId()), getComponentIds(issue));
+            }
+
+            for (Iterator<Map.Entry<String, StatusCounts>> it = statuses.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, StatusCounts> status = it.next();
+                status.getValue().remove(issue.getId());
+                if (entry != null && status.getKey().equals(statusId)) {
+                    status.getValue().put(issue.getId(), entry);
+                    if (status.getValue().issues.size() > MAX_ISSUES)
+                        it.remove();
+                }
+            }
+            //--> replayed when the status is loaded, the database may have been read before the event
+            for (Map.Entry<String, Map<Long, Entry>> status : loading.entrySet())
+                status.getValue().put(issue.getId(), status.getKey().equals(statusId) && entry != null ? entry : REMOVED);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onClearCache(ClearCacheEvent event) {
+        clear();
+    }
+
+    /**
+     * Returns counts of the status loading them if needed. While a status is reloaded, the previous counts
+     * are returned. A status loaded for the first time is loaded by a single thread, the others wait for it.
+     */
+    private StatusCounts getCounts(String statusId) {
+        long now = System.currentTimeMillis();
+        prune(now);
+
+        Map<Long, Entry> changes;
+        synchronized (this) {
+            long deadline = now + LOAD_WAIT;
+            while (true) {
+                StatusCounts counts = statuses.get(statusId);
+                boolean reloading = loading.containsKey(statusId);
+                if (counts != null && (reloading || now - counts.loaded < RELOAD_INTERVAL)) {
+                    counts.lastAccess = now;
+                    return counts;
+                }
+                if (!reloading)
+                    break;
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    return null;
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            changes = new HashMap<Long, Entry>();
+            loading.put(statusId, changes);
+        }
+
+        StatusCounts loaded = new StatusCounts(now);
+        StatusCounts result = null;
+        try {
+            if (load(statusId, loaded)) {
+                result = loaded;
+            } else {
+                log.warn("WipCounter::getCounts - More than " + MAX_ISSUES + " unresolved issues in status " + statusId + ", the status is not counted");
+                synchronized (this) {
+                    statuses.remove(statusId);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("WipCounter::getCounts - Cannot load issues in status " + statusId, e);
+            synchronized (this) {
+                result = statuses.get(statusId);
+            }
+        } finally {
+            synchronized (this) {
+                loading.remove(statusId);
+                if (result == loaded) {
+                    for (Map.Entry<Long, Entry> change : changes.entrySet()) {
+                        if (change.getValue() == REMOVED)
+                            loaded.remove(change.getKey());
+                        else
+                            loaded.put(change.getKey(), change.getValue());
+                    }
+                    statuses.put(statusId, loaded);
+                }
+                notifyAll();
+            }
+        }
+        return result;
+    }
+
+    private void prune(long now) {
+        long last = lastPrune.get();
+        if (now - last < PRUNE_INTERVAL || !lastPrune.compareAndSet(last, now))
+            return;
+
+        synchronized (this) {
+            for (Iterator<StatusCounts> it = statuses.values().iterator(); it.hasNext();) {
+                if (now - it.next().lastAccess > IDLE_TIMEOUT)
+                    it.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads unresolved issues in the status with their projects, assignees and components.
+     * Returns <code>false</code> if there are more than {@link #MAX_ISSUES} of them.
+     */
+    private static boolean load(String statusId, StatusCounts counts) throws SQLException {
+        Map<Long, List<Long>> components = new HashMap<Long, List<Long>>();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet rs = null;
+        try {
+            conn = new DefaultOfBizConnectionFactory().getConnection();
+            pStmt = conn.prepareStatement(COMPONENTS_SQL);
+            pStmt.setString(1, statusId);
+            rs = pStmt.executeQuery();
+            while (rs.next()) {
+                Long issueId = rs.getLong(1);
+                List<Long> componentIds = components.get(issueId);
+                if (componentIds == null) {
+                    componentIds = new ArrayList<Long>(2);
+                    components.put(issueId, componentIds);
+                }
+                componentIds.add(rs.getLong(2));
+                if (components.size() > MAX_ISSUES)
+                    return false;
+            }
+            Utils.closeResultSet(rs);
+            Utils.closeStaement(pStmt);
+
+            pStmt = conn.prepareStatement(ISSUES_SQL);
+            pStmt.setString(1, statusId);
+            pStmt.setMaxRows(MAX_ISSUES + 1);
+            rs = pStmt.executeQuery();
+            while (rs.next()) {
+                if (counts.issues.size() >= MAX_ISSUES)
+                    return false;
+                Long issueId = rs.getLong(1);
+                List<Long> componentIds = components.get(issueId);
+                long[] ids = NO_COMPONENTS;
+                if (componentIds != null) {
+                    ids = new long[componentIds.size()];
+                    for (int i = 0; i < ids.length; i++)
+                        ids[i] = componentIds.get(i);
+                }
+                counts.put(issueId, new Entry(rs.getLong(2), normalize(rs.getString(3)), ids));
+            }
+            return true;
+        } finally {
+            Utils.closeResultSet(rs);
+            Utils.closeStaement(pStmt);
+            Utils.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Jira compares user names ignoring case, groups may list them in any case.
+     */
+    private static String normalize(String userName) {
+        return userName != null ? userName.toLowerCase(Locale.ENGLISH) : null;
+    }
+
+    private static long[] getComponentIds(Issue issue) {
+        Collection<ProjectComponent> components = issue.getComponentObjects();
+        if (components == null || components.isEmpty())
+            return NO_COMPONENTS;
+        long[] ids = new long[components.size()];
+        int i = 0;
+        for (ProjectComponent component : components)
+            ids[i++] = component.getId();
+        return ids;
+    }
+
+    private static <K> int get(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        return count != null ? count : 0;
+    }
+
+    private static <K> void increment(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        counts.put(key, count != null ? count + 1 : 1);
+    }
+
+    private static <K> void decrement(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        if (count == null || count <= 1)
+            counts.remove(key);
+        else
+            counts.put(key, count - 1);
+    }
+
+    /**
+     * Project, assignee and components of an issue.
+     */
+    private static final class Entry {
+        private final Long projectId;
+        private final String assignee;
+        private final long[] componentIds;
+
+        private Entry(Long projectId, String assignee, long[] componentIds) {
+            this.projectId = projectId;
+            this.assignee = assignee;
+            this.componentIds = componentIds;
+        }
+    }
+
+    /**
+     * Issues of a single status with counts by project, component and assignee.
+     */
+    private static final class StatusCounts {
+        private final Map<Long, Entry> issues = new HashMap<Long, Entry>();
+        private final Map<Long, Integer> byProject = new HashMap<Long, Integer>();
+        private final Map<Long, Integer> byComponent = new HashMap<Long, Integer>();
+        private final Map<String, Integer> byAssignee = new HashMap<String, Integer>();
+        private final long loaded;
+        private volatile long lastAccess;
+
+        private StatusCounts(long loaded) {
+            this.loaded = loaded;
+            this.lastAccess = loaded;
+        }
+
+        private void put(Long issueId, Entry entry) {
+            remove(issueId);
+            issues.put(issueId, entry);
+            increment(byProject, entry.projectId);
+            for (long componentId : entry.componentIds)
+                increment(byComponent, componentId);
+            if (entry.assignee != null)
+                increment(byAssignee, entry.assignee);
+        }
+
+        private void remove(Long issueId) {
+            Entry entry = issues.remove(issueId);
+            if (entry == null)
+                return;
+            decrement(byProject, entry.projectId);
+            for (long componentId : entry.componentIds)
+                decrement(byComponent, componentId);
+            if (entry.assignee != null)
+                decrement(byAssignee, entry.assignee);
+        }
+    }
+}
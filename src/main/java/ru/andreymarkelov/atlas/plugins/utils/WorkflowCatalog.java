@@ -0,0 +1,242 @@
+package ru.andreymarkelov.atlas.plugins.utils;
+
+import com.atlassian.crowd.embedded.api.Group;
+import com.atlassian.crowd.event.group.GroupCreatedEvent;
+import com.atlassian.crowd.event.group.GroupDeletedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.config.ConstantsManager;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.issue.issuetype.IssueType;
+import com.atlassian.jira.issue.link.IssueLinkType;
+import com.atlassian.jira.issue.link.IssueLinkTypeManager;
+import com.atlassian.jira.issue.status.Status;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.security.groups.GroupManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Projects, statuses, issue types, link types and groups for the workflow plugin editors.
+ * Every list is an immutable id to name map ordered by name. Projects, statuses, issue types and link
+ * types are read from the caches of Jira on every use, which publishes no events for most of them
+ * in 5.1, and the list is only sorted again when an id or a name changed. Groups are rebuilt after
+ * five minutes and on Crowd group events. All lists are dropped on <code>ClearCacheEvent</code>.
+ */
+public class WorkflowCatalog implements InitializingBean, DisposableBean {
+    /**
+     * Projects by key.
+     */
+    public static final String PROJECTS = "projects";
+
+    /**
+     * Projects by id.
+     */
+    public static final String PROJECT_IDS = "projectids";
+
+    public static final String STATUSES = "statuses";
+    public static final String ISSUE_TYPES = "issuetypes";
+    public static final String LINK_TYPES = "linktypes";
+    public static final String GROUPS = "groups";
+
+    private static final long GROUPS_TTL = 5 * 60 * 1000;
+
+    private final EventPublisher eventPublisher;
+    private final ProjectManager projectManager;
+    private final ConstantsManager constantsManager;
+    private final IssueLinkTypeManager issueLinkTypeManager;
+    private final GroupManager groupManager;
+    private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+    public WorkflowCatalog(
+            EventPublisher eventPublisher,
+            ProjectManager projectManager,
+            ConstantsManager constantsManager,
+            IssueLinkTypeManager issueLinkTypeManager,
+            GroupManager groupManager) {
+        this.eventPublisher = eventPublisher;
+        this.projectManager = projectManager;
+        this.constantsManager = constantsManager;
+        this.issueLinkTypeManager = issueLinkTypeManager;
+        this.groupManager = groupManager;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+        snapshots.clear();
+    }
+
+    public boolean isKind(String kind) {
+        return PROJECTS.equals(kind) || PROJECT_IDS.equals(kind) || STATUSES.equals(kind)
+                || ISSUE_TYPES.equals(kind) || LINK_TYPES.equals(kind) || GROUPS.equals(kind);
+    }
+
+    /**
+     * Returns the id to name map of the kind.
+     */
+    public Map<String, String> get(String kind) {
+        long now = System.currentTimeMillis();
+        Snapshot snapshot = snapshots.get(kind);
+        if (GROUPS.equals(kind)) {
+            if (snapshot == null || now - snapshot.built > GROUPS_TTL) {
+                snapshot = new Snapshot(build(load(kind)), now, 0);
+                snapshots.put(kind, snapshot);
+            }
+            return snapshot.entries;
+        }
+
+        List<String[]> entries = load(kind);
+        long fingerprint = fingerprint(entries);
+        if (snapshot == null || snapshot.fingerprint != fingerprint) {
+            snapshot = new Snapshot(build(entries), now, fingerprint);
+            snapshots.put(kind, snapshot);
+        }
+        return snapshot.entries;
+    }
+
+    /**
+     * Returns the name of the entry or <code>null</code>.
+     */
+    public String getName(String kind, String id) {
+        return id != null ? get(kind).get(id) : null;
+    }
+
+    /**
+     * Returns a page of entries whose id or name contains the query ignoring case.
+     */
+    public Page find(String kind, String query, int start, int max) {
+        String q = query != null ? query.trim().toLowerCase(Locale.ENGLISH) : "";
+        List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+        int matched = 0;
+        for (Map.Entry<String, String> entry : get(kind).entrySet()) {
+            if (q.length() > 0 && !entry.getKey().toLowerCase(Locale.ENGLISH).contains(q)
+                    && !entry.getValue().toLowerCase(Locale.ENGLISH).contains(q))
+                continue;
+            if (matched++ < start)
+                continue;
+            if (entries.size() == max)
+                return new Page(entries, true);
+            entries.add(entry);
+        }
+        return new Page(entries, false);
+    }
+
+    public void clear() {
+        snapshots.clear();
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onClearCache(ClearCacheEvent event) {
+        clear();
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onGroupCreated(GroupCreatedEvent event) {
+        snapshots.remove(GROUPS);
+    }
+
+    @SuppressWarnings("unused")
+    @EventListener
+    public void onGroupDeleted(GroupDeletedEvent event) {
+        snapshots.remove(GROUPS);
+    }
+
+    private List<String[]> load(String kind) {
+        List<String[]> entries = new ArrayList<String[]>();
+        if (PROJECTS.equals(kind)) {
+            for (Project project : projectManager.getProjectObjects())
+                entries.add(new String[] {project.getKey(), project.getName()});
+        } else if (PROJECT_IDS.equals(kind)) {
+            for (Project project : projectManager.getProjectObjects())
+                entries.add(new String[] {project.getId().toString(), project.getName()});
+        } else if (STATUSES.equals(kind)) {
+            for (Status status : constantsManager.getStatusObjects())
+                entries.add(new String[] {status.getId(), status.getName()});
+        } else if (ISSUE_TYPES.equals(kind)) {
+            for (IssueType issueType : constantsManager.getAllIssueTypeObjects())
+                entries.add(new String[] {issueType.getId(), issueType.getName()});
+        } else if (LINK_TYPES.equals(kind)) {
+            for (IssueLinkType linkType : issueLinkTypeManager.getIssueLinkTypes())
+                entries.add(new String[] {linkType.getId().toString(), linkType.getName()});
+        } else if (GROUPS.equals(kind)) {
+            for (Group group : groupManager.getAllGroups())
+                entries.add(new String[] {group.getName(), group.getName()});
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a value which changes when an entry is added, removed or renamed.
+     */
+    private static long fingerprint(List<String[]> entries) {
+        int hash = 0;
+        for (String[] entry : entries)
+            hash += 31 * entry[0].hashCode() + entry[1].hashCode();
+        return ((long) entries.size() << 32) | (hash & 0xFFFFFFFFL);
+    }
+
+    private static Map<String, String> build(List<String[]> entries) {
+        Collections.sort(entries, NAME_ORDER);
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (String[] entry : entries)
+            result.put(entry[0], entry[1]);
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static final Comparator<String[]> NAME_ORDER = new Comparator<String[]>() {
+        @Override
+        public int compare(String[] o1, String[] o2) {
+            int result = String.CASE_INSENSITIVE_ORDER.compare(o1[1], o2[1]);
+            return result != 0 ? result : o1[0].compareTo(o2[0]);
+        }
+    };
+
+    public static final class Page {
+        private final List<Map.Entry<String, String>> entries;
+        private final boolean more;
+
+        private Page(List<Map.Entry<String, String>> entries, boolean more) {
+            this.entries = entries;
+            this.more = more;
+        }
+
+        public List<Map.Entry<String, String>> getEntries() {
+            return entries;
+        }
+
+        public boolean hasMore() {
+            return more;
+        }
+    }
+
+    private static final class Snapshot {
+        private final Map<String, String> entries;
+        private final long built;
+        private final long fingerprint;
+
+        private Snapshot(Map<String, String> entries, long built, long fingerprint) {
+            this.entries = entries;
+            this.built = built;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
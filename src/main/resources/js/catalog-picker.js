@@ -0,0 +1,68 @@
+/*
+ * Loads options of <select class="utils-catalog-picker" data-catalog="..."> page by page
+ * from UtilsWorkflowCatalog. Selected options and options with empty values rendered by the template are kept.
+ * Selects added later are initialized with $(select).utilsCatalogPicker().
+ */
+(function($) {
+    var PAGE_SIZE = 50;
+
+    $.fn.utilsCatalogPicker = function() {
+        return this.each(function() {
+            var select = $(this);
+            var state = {start: 0, query: "", request: null};
+            var filter = $("<input type='text' class='utils-catalog-filter'/>").attr("placeholder", "Filter...");
+            var more = $("<a href='#' class='utils-catalog-more'>More...</a>").hide();
+            select.before(filter).before("<br>").after(more).after("<br>");
+
+            function load() {
+                if (state.request) {
+                    state.request.abort();
+                }
+                state.request = $.ajax({
+                    url: AJS.contextPath() + "/secure/admin/UtilsWorkflowCatalog.jspa",
+                    data: {kind: select.data("catalog"), q: state.query, start: state.start, max: PAGE_SIZE},
+                    dataType: "json",
+                    cache: false,
+                    success: function(data) {
+                        var hadSelection = select.find("option:selected").length > 0;
+                        $.each(data.items, function(i, item) {
+                            var exists = select.find("option").filter(function() { return this.value === item.id; }).length > 0;
+                            if (!exists) {
+                                select.append($("<option/>").val(item.id).text(item.name));
+                            }
+                        });
+                        if (!hadSelection && !select.prop("multiple")) {
+                            select.prop("selectedIndex", 0);
+                        }
+                        state.start += data.items.length;
+                        more.toggle(data.more);
+                        select.trigger("change");
+                    }
+                });
+            }
+
+            var timer = null;
+            filter.keyup(function() {
+                clearTimeout(timer);
+                timer = setTimeout(function() {
+                    if (filter.val() === state.query) {
+                        return;
+                    }
+                    state.query = filter.val();
+                    state.start = 0;
+                    select.find("option:not(:selected)").filter(function() { return this.value !== ""; }).remove();
+                    load();
+                }, 300);
+            });
+            more.click(function(e) {
+                e.preventDefault();
+                load();
+            });
+            load();
+        });
+    };
+
+    $(function() {
+        $("select.utils-catalog-picker").utilsCatalogPicker();
+    });
+})(AJS.$);